@@ -5,7 +5,7 @@ import android.app.Application;
 import android.content.Context;
 
 import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
-import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastSettings;
 
 public class CastApplication extends Application {
   private static String APPLICATION_ID;
@@ -18,7 +18,7 @@ public class CastApplication extends Application {
     super.onCreate();
     mAppContext = getApplicationContext();
     APPLICATION_ID = getString(R.string.app_id);
-    CastUtils.saveFloatToPreference(getApplicationContext(), VideoCastManager.PREFS_KEY_VOLUME_INCREMENT, (float) VOLUME_INCREMENT);
+    CastSettings.getInstance(this).setVolumeIncrement((float) VOLUME_INCREMENT);
   }
 
   public static VideoCastManager getCastManager(Context context) {
@@ -30,7 +30,7 @@ public class CastApplication extends Application {
 
     }
     mCastMgr.setContext(context);
-    String destroyOnExitStr = CastUtils.getStringFromPreference(context, CastPreference.TERMINATION_POLICY_KEY);
+    String destroyOnExitStr = CastSettings.getInstance(context).getTerminationPolicy();
     mCastMgr.setStopOnDisconnect(null != destroyOnExitStr && CastPreference.STOP_ON_DISCONNECT.equals(destroyOnExitStr));
     return mCastMgr;
   }
@@ -14,13 +14,16 @@ import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
 import com.distantfuture.castvideos.app.CastApplication;
 import com.distantfuture.castvideos.app.R;
 import com.distantfuture.castvideos.app.Utils;
+import com.distantfuture.castvideos.app.browser.VideoItemLoader;
 
 public class CastPreference extends PreferenceActivity implements OnSharedPreferenceChangeListener {
 
   public static final String APP_DESTRUCTION_KEY = "application_destruction";
   public static final String FTU_SHOWN_KEY = "ftu_shown";
   public static final String VOLUME_SELCTION_KEY = "volume_target";
-  public static final String TERMINATION_POLICY_KEY = "termination_policy";
+  public static final String TERMINATION_POLICY_KEY = VideoCastManager.PREFS_KEY_TERMINATION_POLICY;
+  public static final String CATALOG_SOURCE_KEY = "catalog_source";
+  public static final String SYNTHETIC_CATALOG_SIZE_KEY = "synthetic_catalog_size";
   public static final String STOP_ON_DISCONNECT = "1";
   public static final String CONTINUE_ON_DISCONNECT = "0";
   private ListPreference mVolumeListPreference;
@@ -28,6 +31,8 @@ public class CastPreference extends PreferenceActivity implements OnSharedPrefer
   private VideoCastManager mCastManager;
   boolean mStopOnExit;
   private ListPreference mTerminationListPreference;
+  private ListPreference mCatalogSourceListPreference;
+  private ListPreference mSyntheticCatalogSizeListPreference;
 
   @SuppressWarnings("deprecation")
   @Override
@@ -50,6 +55,12 @@ public class CastPreference extends PreferenceActivity implements OnSharedPrefer
     String volSummary = getResources().getString(R.string.prefs_volume_title_summary, volValue);
     mVolumeListPreference.setSummary(volSummary);
 
+    // -- Catalog source -----------------------//
+    mCatalogSourceListPreference = (ListPreference) getPreferenceScreen().findPreference(CATALOG_SOURCE_KEY);
+    mCatalogSourceListPreference.setSummary(getCatalogSourceSummary());
+    mSyntheticCatalogSizeListPreference = (ListPreference) getPreferenceScreen().findPreference(SYNTHETIC_CATALOG_SIZE_KEY);
+    updateSyntheticCatalogSize();
+
     EditTextPreference versionPref = (EditTextPreference) findPreference("app_version");
     versionPref.setTitle(getString(R.string.version, Utils.getAppVersionName(this)));
   }
@@ -68,6 +79,49 @@ public class CastPreference extends PreferenceActivity implements OnSharedPrefer
     } else if (TERMINATION_POLICY_KEY.equals(key)) {
       mTerminationListPreference.setSummary(getTerminationSummary(sharedPreferences));
       mCastManager.setStopOnDisconnect(mStopOnExit);
+    } else if (CATALOG_SOURCE_KEY.equals(key)) {
+      mCatalogSourceListPreference.setSummary(getCatalogSourceSummary());
+      updateSyntheticCatalogSize();
+    } else if (SYNTHETIC_CATALOG_SIZE_KEY.equals(key)) {
+      updateSyntheticCatalogSize();
+    }
+  }
+
+  private void updateSyntheticCatalogSize() {
+    mSyntheticCatalogSizeListPreference.setSummary(mSyntheticCatalogSizeListPreference.getEntry());
+    // the size only applies to the generated catalog
+    mSyntheticCatalogSizeListPreference.setEnabled(VideoItemLoader.SOURCE_SYNTHETIC.equals(getCatalogSource(this)));
+  }
+
+  private String getCatalogSourceSummary() {
+    String summary = String.valueOf(mCatalogSourceListPreference.getEntry());
+    String source = getCatalogSource(this);
+    if (VideoItemLoader.SOURCE_HTTP_AND_LOCAL.equals(source) || VideoItemLoader.SOURCE_LOCAL.equals(source)) {
+      summary += "\n" + getString(R.string.prefs_catalog_source_local_file,
+          VideoItemLoader.getLocalCatalogFile(this).getParent());
+    }
+    return summary;
+  }
+
+  /**
+   * Returns which catalog the browser shows, one of the <code>SOURCE_</code> values of
+   * {@link VideoItemLoader}.
+   */
+  public static String getCatalogSource(Context ctx) {
+    SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(ctx);
+    return sharedPref.getString(CATALOG_SOURCE_KEY, ctx.getString(R.string.prefs_catalog_source_default));
+  }
+
+  /**
+   * Returns how many videos the generated catalog has.
+   */
+  public static int getSyntheticCatalogSize(Context ctx) {
+    SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(ctx);
+    String defaultSize = ctx.getString(R.string.prefs_synthetic_catalog_size_default);
+    try {
+      return Integer.parseInt(sharedPref.getString(SYNTHETIC_CATALOG_SIZE_KEY, defaultSize));
+    } catch (NumberFormatException e) {
+      return Integer.parseInt(defaultSize);
     }
   }
 
@@ -11,7 +11,6 @@ import android.media.MediaPlayer.OnPreparedListener;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v4.app.FragmentActivity;
 import android.text.method.ScrollingMovementMethod;
 import android.util.Log;
@@ -36,13 +35,11 @@ import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.VideoCastConsumerImpl;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.distantfuture.castcompanionlibrary.lib.utils.MiniController;
+import com.distantfuture.castcompanionlibrary.lib.utils.UiTaskScheduler;
 import com.google.android.gms.cast.ApplicationMetadata;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 public class LocalPlayerActivity extends FragmentActivity {
 
   private static final String TAG = "LocalPlayerActivity";
@@ -58,11 +55,10 @@ public class LocalPlayerActivity extends FragmentActivity {
   private View mContainer;
   private ImageView mCoverArt;
   private VideoCastManager mCastManager;
-  private Timer mSeekbarTimer;
-  private Timer mControlersTimer;
+  private UiTaskScheduler.Token mSeekbarTimer;
+  private UiTaskScheduler.Token mControlersTimer;
   private PlaybackLocation mLocation;
   private PlaybackState mPlaybackState;
-  private final Handler mHandler = new Handler();
   private Point mDisplaySize;
   private final float mAspectRatio = 72f / 128;
   private AQuery mAquery;
@@ -315,8 +311,7 @@ public class LocalPlayerActivity extends FragmentActivity {
 
   private void restartTrickplayTimer() {
     stopTrickplayTimer();
-    mSeekbarTimer = new Timer();
-    mSeekbarTimer.scheduleAtFixedRate(new UpdateSeekbarTask(), 100, 1000);
+    mSeekbarTimer = UiTaskScheduler.getInstance().scheduleAtFixedRate(new UpdateSeekbarTask(), 100, 1000);
     Log.d(TAG, "Restarted TrickPlay Timer");
   }
 
@@ -333,8 +328,7 @@ public class LocalPlayerActivity extends FragmentActivity {
     if (mLocation == PlaybackLocation.REMOTE) {
       return;
     }
-    mControlersTimer = new Timer();
-    mControlersTimer.schedule(new HideControllersTask(), 5000);
+    mControlersTimer = UiTaskScheduler.getInstance().schedule(new HideControllersTask(), 5000);
   }
 
   // should be called from the main thread
@@ -393,36 +387,22 @@ public class LocalPlayerActivity extends FragmentActivity {
     super.onResume();
   }
 
-  private class HideControllersTask extends TimerTask {
+  private class HideControllersTask implements Runnable {
 
     @Override
     public void run() {
-      mHandler.post(new Runnable() {
-        @Override
-        public void run() {
-          updateControlersVisibility(false);
-          mControlersVisible = false;
-        }
-      });
-
+      updateControlersVisibility(false);
+      mControlersVisible = false;
     }
   }
 
-  private class UpdateSeekbarTask extends TimerTask {
+  private class UpdateSeekbarTask implements Runnable {
 
     @Override
     public void run() {
-      mHandler.post(new Runnable() {
-
-        @Override
-        public void run() {
-          int currentPos = 0;
-          if (mLocation == PlaybackLocation.LOCAL) {
-            currentPos = mVideoView.getCurrentPosition();
-            updateSeekbar(currentPos, mDuration);
-          }
-        }
-      });
+      if (mLocation == PlaybackLocation.LOCAL) {
+        updateSeekbar(mVideoView.getCurrentPosition(), mDuration);
+      }
     }
   }
 
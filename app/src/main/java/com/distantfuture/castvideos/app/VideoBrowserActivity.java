@@ -2,6 +2,7 @@
 package com.distantfuture.castvideos.app;
 
 import android.app.ActionBar;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
@@ -16,6 +17,7 @@ import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.IVideoCastConsumer;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.VideoCastConsumerImpl;
 import com.distantfuture.castcompanionlibrary.lib.utils.MiniController;
+import com.distantfuture.castvideos.app.browser.CatalogParserBenchmark;
 
 public class VideoBrowserActivity extends FragmentActivity {
 
@@ -95,6 +97,7 @@ public class VideoBrowserActivity extends FragmentActivity {
 
     mediaRouteMenuItem = mCastManager.
         addMediaRouterButton(menu, R.id.media_route_menu_item, this);
+    menu.findItem(R.id.action_benchmark_parser).setVisible(BuildConfig.DEBUG);
 
     return true;
   }
@@ -106,10 +109,31 @@ public class VideoBrowserActivity extends FragmentActivity {
         Intent i = new Intent(VideoBrowserActivity.this, CastPreference.class);
         startActivity(i);
         break;
+      case R.id.action_benchmark_parser:
+        runParserBenchmark();
+        break;
     }
     return true;
   }
 
+  /*
+   * Debug builds only: compares the catalog parsers on a background thread.
+   */
+  private void runParserBenchmark() {
+    final Context context = getApplicationContext();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          CatalogParserBenchmark.runAndLog(context);
+        } catch (Exception e) {
+          Log.e(TAG, "Failed to benchmark the catalog parser", e);
+        }
+      }
+    }, "Parser benchmark").start();
+    Utils.showToast(this, R.string.benchmark_parser_started);
+  }
+
   private void showFtu() {
   }
 
@@ -0,0 +1,235 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges several feeds into one catalog. The feeds are loaded concurrently on a small shared pool,
+ * each one with its own disk cache and revalidation, and merged in the order they were given. An
+ * item whose content id was already seen in an earlier feed is dropped, so it stays in the
+ * categories of the first feed that listed it.
+ *
+ * A feed that fails, or that is still loading {@code feedTimeoutMs} after it started, is replaced
+ * by its last cached copy, or left out if there is none; only when no feed at all can be loaded
+ * does the load fail.
+ * <p/>
+ * A feed that timed out is interrupted, but the merged catalog does not wait for it to stop. Its
+ * pool thread stays busy until the feed's own source gives up, which for an
+ * {@link HttpCatalogSource} is at most one connect or read timeout later. Feeds queued behind it
+ * start late by as much, and since their timeout only runs from when they start, they are not
+ * dropped for it.
+ */
+public class AggregateCatalogSource implements CatalogSource {
+
+  private static final String TAG = "AggregateCatalogSource";
+  public static final long DEFAULT_FEED_TIMEOUT_MS = 20 * 1000;
+  private static final int MAX_PARALLEL_FEEDS = 4;
+
+  private static final ThreadPoolExecutor sExecutor;
+
+  static {
+    sExecutor = new ThreadPoolExecutor(MAX_PARALLEL_FEEDS, MAX_PARALLEL_FEEDS, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "CatalogFeed #" + mCount.incrementAndGet());
+      }
+    });
+    sExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  private final Context mContext;
+  private final List<CatalogSource> mSources;
+  private final long mFeedTimeout;
+
+  public AggregateCatalogSource(Context context, List<CatalogSource> sources) {
+    this(context, sources, DEFAULT_FEED_TIMEOUT_MS);
+  }
+
+  public AggregateCatalogSource(Context context, List<CatalogSource> sources, long feedTimeoutMs) {
+    mContext = context.getApplicationContext();
+    mSources = new ArrayList<CatalogSource>(sources);
+    mFeedTimeout = feedTimeoutMs;
+  }
+
+  @Override
+  public String getId() {
+    StringBuilder id = new StringBuilder("aggregate:");
+    for (CatalogSource source : mSources) {
+      id.append(source.getId()).append('|');
+    }
+    return id.toString();
+  }
+
+  @Override
+  public CatalogCache.Snapshot load(CatalogCache.Snapshot cached, VideoProvider.ProgressListener listener) throws IOException {
+    int count = mSources.size();
+    CompletionService<CatalogCache.Snapshot> completion = new ExecutorCompletionService<CatalogCache.Snapshot>(sExecutor);
+    List<FeedTask> tasks = new ArrayList<FeedTask>(count);
+    for (int i = 0; i < count; i++) {
+      FeedTask task = new FeedTask(i, mSources.get(i));
+      task.future = completion.submit(task);
+      tasks.add(task);
+    }
+
+    CatalogCache.Snapshot[] results = new CatalogCache.Snapshot[count];
+    int pending = count;
+    try {
+      while (pending > 0) {
+        long wait = mFeedTimeout;
+        long now = SystemClock.elapsedRealtime();
+        for (FeedTask task : tasks) {
+          if (task.done || 0 == task.started) {
+            continue;
+          }
+          long left = task.started + mFeedTimeout - now;
+          if (left <= 0) {
+            Log.w(TAG, "Feed " + task.source.getId() + " timed out");
+            task.future.cancel(true);
+            task.done = true;
+            results[task.index] = readCached(task.source);
+            pending--;
+          } else {
+            wait = Math.min(wait, left);
+          }
+        }
+        if (0 == pending) {
+          break;
+        }
+        Future<CatalogCache.Snapshot> future = completion.poll(wait, TimeUnit.MILLISECONDS);
+        if (null == future) {
+          continue;
+        }
+        FeedTask task = findTask(tasks, future);
+        if (task.done) {
+          // cancelled after a timeout
+          continue;
+        }
+        task.done = true;
+        pending--;
+        try {
+          results[task.index] = future.get();
+        } catch (ExecutionException e) {
+          Log.w(TAG, "Failed to load feed " + task.source.getId(), e.getCause());
+          results[task.index] = readCached(task.source);
+        }
+        if (null != listener && pending > 0) {
+          listener.onProgress(merge(results).getMedia());
+        }
+      }
+    } catch (InterruptedException e) {
+      for (FeedTask task : tasks) {
+        task.future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading feeds");
+    }
+
+    String etag = combinedValidators(results);
+    if (null != cached && null != etag && etag.equals(cached.etag)) {
+      return cached;
+    }
+    for (CatalogCache.Snapshot result : results) {
+      if (null != result) {
+        return new CatalogCache.Snapshot(etag, null, merge(results));
+      }
+    }
+    throw new IOException("None of the " + count + " feeds could be loaded");
+  }
+
+  private static Catalog merge(CatalogCache.Snapshot[] results) {
+    Catalog.Builder builder = new Catalog.Builder();
+    Set<String> seen = new HashSet<String>();
+    for (CatalogCache.Snapshot result : results) {
+      if (null == result) {
+        continue;
+      }
+      MediaRecords media = result.catalog.getMedia();
+      int[] positions = new int[media.size()];
+      for (int i = 0; i < media.size(); i++) {
+        if (seen.add(media.getContentId(i))) {
+          positions[i] = builder.size();
+          builder.add(media, i);
+        } else {
+          positions[i] = -1;
+        }
+      }
+      for (Map.Entry<String, int[]> category : result.catalog.getCategoryMembers().entrySet()) {
+        for (int member : category.getValue()) {
+          if (positions[member] >= 0) {
+            builder.addToCategory(category.getKey(), positions[member]);
+          }
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /*
+   * The validators of all feeds joined together, or null if any feed can't be revalidated, in which
+   * case the merged catalog is always rebuilt.
+   */
+  private static String combinedValidators(CatalogCache.Snapshot[] results) {
+    StringBuilder combined = new StringBuilder();
+    for (CatalogCache.Snapshot result : results) {
+      if (null == result || (null == result.etag && null == result.lastModified)) {
+        return null;
+      }
+      combined.append(result.etag).append('/').append(result.lastModified).append('\n');
+    }
+    return combined.toString();
+  }
+
+  private CatalogCache.Snapshot readCached(CatalogSource source) {
+    return new CatalogCache(mContext).read(source.getId());
+  }
+
+  private static FeedTask findTask(List<FeedTask> tasks, Future<CatalogCache.Snapshot> future) {
+    for (FeedTask task : tasks) {
+      if (task.future == future) {
+        return task;
+      }
+    }
+    throw new IllegalStateException("Unknown feed future");
+  }
+
+  private class FeedTask implements Callable<CatalogCache.Snapshot> {
+    final int index;
+    final CatalogSource source;
+    Future<CatalogCache.Snapshot> future;
+    volatile long started;
+    boolean done;
+
+    FeedTask(int index, CatalogSource source) {
+      this.index = index;
+      this.source = source;
+    }
+
+    @Override
+    public CatalogCache.Snapshot call() throws Exception {
+      started = SystemClock.elapsedRealtime();
+      return VideoProvider.buildMedia(mContext, source, null, null);
+    }
+  }
+}
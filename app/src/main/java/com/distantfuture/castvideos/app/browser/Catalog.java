@@ -0,0 +1,281 @@
+package com.distantfuture.castvideos.app.browser;
+
+import com.google.android.gms.cast.MediaInfo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable, indexed catalog of videos. Besides the flat list in feed order it keeps the items
+ * that belong to each category, a content id index, and a token index over the title,
+ * subtitle and studio of every item that answers prefix searches. All indexes are built once by
+ * {@link Builder#build()} while the feed is ingested.
+ */
+public class Catalog {
+
+  private final MediaRecords mMedia;
+  private final Map<String, int[]> mCategories;
+  private final Map<String, Integer> mByContentId;
+  private final String[] mTokens;
+  private final int[][] mPostings;
+
+  private Catalog(MediaRecords media, Map<String, int[]> categories) {
+    mMedia = media;
+    mCategories = categories;
+    mByContentId = new HashMap<String, Integer>(media.size() * 2);
+
+    Map<String, IntList> tokens = new HashMap<String, IntList>();
+    for (int i = 0; i < media.size(); i++) {
+      String contentId = media.getContentId(i);
+      if (!mByContentId.containsKey(contentId)) {
+        mByContentId.put(contentId, i);
+      }
+      indexText(tokens, media.getTitle(i), i);
+      indexText(tokens, media.getSubtitle(i), i);
+      indexText(tokens, media.getStudio(i), i);
+    }
+    mTokens = tokens.keySet().toArray(new String[tokens.size()]);
+    Arrays.sort(mTokens);
+    mPostings = new int[mTokens.length][];
+    for (int i = 0; i < mTokens.length; i++) {
+      mPostings[i] = tokens.get(mTokens[i]).toArray();
+    }
+  }
+
+  public MediaRecords getMedia() {
+    return mMedia;
+  }
+
+  public int size() {
+    return mMedia.size();
+  }
+
+  /**
+   * Returns the category names in feed order.
+   */
+  public List<String> getCategoryNames() {
+    return new ArrayList<String>(mCategories.keySet());
+  }
+
+  /*
+   * Category name to the positions of its items, for CatalogCache.
+   */
+  Map<String, int[]> getCategoryMembers() {
+    return Collections.unmodifiableMap(mCategories);
+  }
+
+  /**
+   * Returns the items of the given category, or an empty list if there is no such category. Items
+   * are built as they are read from the returned list.
+   */
+  public List<MediaInfo> getCategory(String name) {
+    final int[] members = mCategories.get(name);
+    if (null == members) {
+      return Collections.emptyList();
+    }
+    return new AbstractList<MediaInfo>() {
+      @Override
+      public MediaInfo get(int location) {
+        return mMedia.get(members[location]);
+      }
+
+      @Override
+      public int size() {
+        return members.length;
+      }
+    };
+  }
+
+  /**
+   * Returns the position of the first item whose content id (its stream URL) is
+   * <code>contentId</code>, or -1.
+   */
+  public int indexOf(String contentId) {
+    Integer index = mByContentId.get(contentId);
+    return null == index ? -1 : index;
+  }
+
+  /**
+   * Returns the first item whose content id is <code>contentId</code>, or <code>null</code>.
+   */
+  public MediaInfo findByContentId(String contentId) {
+    int index = indexOf(contentId);
+    return index < 0 ? null : mMedia.get(index);
+  }
+
+  /**
+   * Returns, in feed order, the items where every word of <code>query</code> is a prefix of some
+   * word in their title, subtitle or studio. Matching ignores case.
+   */
+  public List<MediaInfo> search(String query) {
+    List<String> terms = tokenize(query);
+    if (terms.isEmpty()) {
+      return Collections.emptyList();
+    }
+    BitSet result = null;
+    for (String term : terms) {
+      BitSet matches = matchPrefix(term);
+      if (null == result) {
+        result = matches;
+      } else {
+        result.and(matches);
+      }
+      if (result.isEmpty()) {
+        return Collections.emptyList();
+      }
+    }
+    List<MediaInfo> found = new ArrayList<MediaInfo>(result.cardinality());
+    for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+      found.add(mMedia.get(i));
+    }
+    return found;
+  }
+
+  private BitSet matchPrefix(String prefix) {
+    BitSet matches = new BitSet(mMedia.size());
+    int i = Arrays.binarySearch(mTokens, prefix);
+    if (i < 0) {
+      i = -i - 1;
+    }
+    for (; i < mTokens.length && mTokens[i].startsWith(prefix); i++) {
+      for (int index : mPostings[i]) {
+        matches.set(index);
+      }
+    }
+    return matches;
+  }
+
+  private static void indexText(Map<String, IntList> tokens, String text, int index) {
+    for (String token : tokenize(text)) {
+      IntList postings = tokens.get(token);
+      if (null == postings) {
+        postings = new IntList();
+        tokens.put(token, postings);
+      }
+      postings.addIfLast(index);
+    }
+  }
+
+  private static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<String>();
+    if (null == text) {
+      return tokens;
+    }
+    String lower = text.toLowerCase(Locale.US);
+    int start = -1;
+    for (int i = 0; i <= lower.length(); i++) {
+      boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+      if (letter && start < 0) {
+        start = i;
+      } else if (!letter && start >= 0) {
+        tokens.add(lower.substring(start, i));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /*
+   * Ascending item indexes for one token or category. A token's postings use addIfLast() so that an
+   * item is only added once even if the token appears in several of its fields.
+   */
+  private static class IntList {
+    private int[] mValues = new int[4];
+    private int mSize;
+
+    void addIfLast(int value) {
+      if (mSize > 0 && mValues[mSize - 1] == value) {
+        return;
+      }
+      add(value);
+    }
+
+    void add(int value) {
+      if (mSize == mValues.length) {
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+      mValues[mSize++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(mValues, mSize);
+    }
+  }
+
+  /**
+   * Collects items and category members in feed order.
+   */
+  public static class Builder {
+    private final MediaRecords.Builder mMedia = new MediaRecords.Builder();
+    private final Map<String, IntList> mCategories = new LinkedHashMap<String, IntList>();
+
+    public Builder add(String title, String subTitle, String studio, String contentId, String contentType,
+        String imageUrl, String bigImageUrl) {
+      mMedia.add(title, subTitle, studio, contentId, contentType, imageUrl, bigImageUrl);
+      return this;
+    }
+
+    /**
+     * Copies the item at <code>index</code> of <code>records</code>.
+     */
+    public Builder add(MediaRecords records, int index) {
+      mMedia.add(records, index);
+      return this;
+    }
+
+    /**
+     * Assigns the items added between <code>start</code> (inclusive) and <code>end</code>
+     * (exclusive) to the category <code>name</code>.
+     */
+    public Builder addCategory(String name, int start, int end) {
+      for (int i = start; i < end; i++) {
+        addToCategory(name, i);
+      }
+      return this;
+    }
+
+    /**
+     * Assigns the item added at position <code>index</code> to the category <code>name</code>.
+     * Items must be assigned to a category in ascending order.
+     */
+    public Builder addToCategory(String name, int index) {
+      if (null != name) {
+        IntList members = mCategories.get(name);
+        if (null == members) {
+          members = new IntList();
+          mCategories.put(name, members);
+        }
+        members.addIfLast(index);
+      }
+      return this;
+    }
+
+    public int size() {
+      return mMedia.size();
+    }
+
+    /**
+     * Returns the items added so far. The snapshot shares its columns with the builder, so taking
+     * one after every page does not copy the catalog again.
+     */
+    public MediaRecords snapshotMedia() {
+      return mMedia.snapshot();
+    }
+
+    public Catalog build() {
+      Map<String, int[]> categories = new LinkedHashMap<String, int[]>();
+      for (Map.Entry<String, IntList> category : mCategories.entrySet()) {
+        categories.put(category.getKey(), category.getValue().toArray());
+      }
+      return new Catalog(mMedia.build(), categories);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A binary snapshot of a parsed catalog, kept in the application's cache directory together with
+ * the ETag and Last-Modified validators of the response it was parsed from.
+ */
+public class CatalogCache {
+
+  private static final String TAG = "CatalogCache";
+  // 5: snapshots written before the subtitle and studio of parsed items were no longer swapped
+  private static final int VERSION = 5;
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final File mDir;
+
+  public static class Snapshot {
+    public final String etag;
+    public final String lastModified;
+    public final Catalog catalog;
+
+    public Snapshot(String etag, String lastModified, Catalog catalog) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.catalog = catalog;
+    }
+  }
+
+  public CatalogCache(Context context) {
+    mDir = context.getCacheDir();
+  }
+
+  /**
+   * Returns the snapshot stored for the source <code>id</code>, or <code>null</code> if there is none or it
+   * can not be read.
+   */
+  public Snapshot read(String id) {
+    File file = getFile(id);
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      if (in.readInt() != VERSION) {
+        return null;
+      }
+      String etag = readString(in);
+      String lastModified = readString(in);
+      Catalog.Builder builder = new Catalog.Builder();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        builder.add(readString(in), readString(in), readString(in), readString(in), readString(in),
+            in.readUTF(), in.readUTF());
+      }
+      int categories = in.readInt();
+      for (int i = 0; i < categories; i++) {
+        String name = in.readUTF();
+        int members = in.readInt();
+        for (int j = 0; j < members; j++) {
+          builder.addToCategory(name, in.readInt());
+        }
+      }
+      return new Snapshot(etag, lastModified, builder.build());
+    } catch (IOException e) {
+      Log.d(TAG, "Failed to read the catalog cache, discarding it", e);
+      file.delete();
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * Replaces the snapshot stored for the source <code>id</code>. The new file is written next to the old one
+   * and renamed over it, so a reader never sees a partial snapshot.
+   */
+  public void write(String id, Snapshot snapshot) {
+    File file = getFile(id);
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+      out.writeInt(VERSION);
+      writeString(out, snapshot.etag);
+      writeString(out, snapshot.lastModified);
+      out.writeInt(snapshot.catalog.size());
+      MediaRecords media = snapshot.catalog.getMedia();
+      for (int i = 0; i < media.size(); i++) {
+        writeString(out, media.getTitle(i));
+        writeString(out, media.getSubtitle(i));
+        writeString(out, media.getStudio(i));
+        writeString(out, media.getContentId(i));
+        writeString(out, media.getContentType(i));
+        out.writeUTF(media.getImageUrl(i));
+        out.writeUTF(media.getBigImageUrl(i));
+      }
+      Map<String, int[]> categories = snapshot.catalog.getCategoryMembers();
+      out.writeInt(categories.size());
+      for (Map.Entry<String, int[]> category : categories.entrySet()) {
+        out.writeUTF(category.getKey());
+        out.writeInt(category.getValue().length);
+        for (int index : category.getValue()) {
+          out.writeInt(index);
+        }
+      }
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Failed to rename " + tmp);
+      }
+    } catch (IOException e) {
+      Log.d(TAG, "Failed to write the catalog cache", e);
+      tmp.delete();
+    } finally {
+      close(out);
+    }
+  }
+
+  private File getFile(String id) {
+    return new File(mDir, "catalog-" + Integer.toHexString(id.hashCode()) + ".bin");
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(null != value);
+    if (null != value) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void close(Closeable closeable) {
+    if (null != closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+
+/**
+ * Compares the streaming parse of {@link VideoProvider} with the tree parse it replaced, on the same
+ * feed bytes, so that both are measured without the network in the way. The tree parse is kept here
+ * as it was: the feed is read line by line into a <code>StringBuilder</code> through an 8 char
+ * reader, turned into a <code>JSONObject</code> and then walked. For each parser the average time
+ * and the bytes allocated per parse, as counted by {@link Debug#startAllocCounting()}, are reported.
+ * The benchmark runs on the calling thread, which should not be the main thread. Debug builds run it
+ * from the menu of the browser.
+ */
+public final class CatalogParserBenchmark {
+
+  private static final String TAG = "CatalogParserBenchmark";
+  private static final int DEFAULT_ITERATIONS = 10;
+
+  private static final String TAG_CATEGORIES = "categories";
+  private static final String TAG_NAME = "name";
+  private static final String TAG_MEDIA = "videos";
+  private static final String TAG_STUDIO = "studio";
+  private static final String TAG_SOURCES = "sources";
+  private static final String TAG_SUBTITLE = "subtitle";
+  private static final String TAG_THUMB = "image-480x270";
+  private static final String TAG_IMG_780_1200 = "image-780x1200";
+  private static final String TAG_TITLE = "title";
+  private static final String THUMB_PREFIX_URL = "http://commondatastorage.googleapis.com/gtv-videos-bucket/sample/";
+
+  private CatalogParserBenchmark() {
+  }
+
+  /**
+   * Returns a human readable report of both parsers on <code>feed</code>.
+   */
+  public static String run(byte[] feed, int iterations) throws IOException, JSONException {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("iterations must be positive");
+    }
+    // warm up both paths before measuring either
+    int items = parseStream(feed).size();
+    if (parseTree(new ByteArrayInputStream(feed)).size() != items) {
+      throw new IllegalStateException("The parsers disagree on the number of items");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(feed.length).append(" bytes, ").append(items).append(" items\n");
+
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocSize();
+      long start = SystemClock.elapsedRealtime();
+      for (int i = 0; i < iterations; i++) {
+        parseStream(feed);
+      }
+      report(sb, "stream", start, iterations);
+
+      Debug.resetThreadAllocSize();
+      start = SystemClock.elapsedRealtime();
+      for (int i = 0; i < iterations; i++) {
+        parseTree(new ByteArrayInputStream(feed));
+      }
+      report(sb, "tree", start, iterations);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Runs the benchmark on the local catalog file if there is one, and otherwise on the online
+   * catalog, which is downloaded once before anything is measured, and logs the report.
+   */
+  public static String runAndLog(Context context) throws IOException, JSONException {
+    File local = VideoItemLoader.getLocalCatalogFile(context);
+    InputStream is = local.exists() ? new FileInputStream(local) : new URL(VideoItemLoader.CATALOG_URL).openStream();
+    byte[] feed;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[VideoProvider.BUFFER_SIZE];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      feed = bytes.toByteArray();
+    } finally {
+      is.close();
+    }
+    String report = run(feed, DEFAULT_ITERATIONS);
+    Log.d(TAG, report);
+    return report;
+  }
+
+  private static void report(StringBuilder sb, String name, long start, int iterations) {
+    long elapsed = SystemClock.elapsedRealtime() - start;
+    sb.append(name).append(": ").append(elapsed / iterations).append("ms, ")
+        .append(Debug.getThreadAllocSize() / iterations / 1024).append("KB allocated per parse\n");
+  }
+
+  private static Catalog parseStream(byte[] feed) throws IOException {
+    return new VideoProvider(null).parseStream(new ByteArrayInputStream(feed));
+  }
+
+  /*
+   * The parse VideoProvider used before it streamed the feed.
+   */
+  static Catalog parseTree(InputStream is) throws IOException, JSONException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(is, "iso-8859-1"), 8);
+    StringBuilder sb = new StringBuilder();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      sb.append(line);
+    }
+    JSONObject jsonObj = new JSONObject(sb.toString());
+
+    Catalog.Builder result = new Catalog.Builder();
+    JSONArray categories = jsonObj.getJSONArray(TAG_CATEGORIES);
+    for (int i = 0; i < categories.length(); i++) {
+      JSONObject category = categories.getJSONObject(i);
+      int start = result.size();
+      JSONArray videos = category.getJSONArray(TAG_MEDIA);
+      for (int j = 0; j < videos.length(); j++) {
+        JSONObject video = videos.getJSONObject(j);
+        JSONArray videoUrls = video.getJSONArray(TAG_SOURCES);
+        if (videoUrls.length() == 0) {
+          continue;
+        }
+        result.add(video.getString(TAG_TITLE), video.getString(TAG_SUBTITLE), video.getString(TAG_STUDIO),
+            videoUrls.getString(0), "video/mp4", THUMB_PREFIX_URL + video.getString(TAG_THUMB),
+            THUMB_PREFIX_URL + video.getString(TAG_IMG_780_1200));
+      }
+      result.addCategory(category.getString(TAG_NAME), start, result.size());
+    }
+    return result.build();
+  }
+}
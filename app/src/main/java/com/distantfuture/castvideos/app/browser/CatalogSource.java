@@ -0,0 +1,26 @@
+package com.distantfuture.castvideos.app.browser;
+
+import java.io.IOException;
+
+/**
+ * Where a catalog comes from. {@link VideoProvider} and {@link CatalogStore} only talk to this
+ * interface, so the same ingestion, indexing and list code runs against the live feed, a local file
+ * or asset, or generated data.
+ */
+public interface CatalogSource {
+
+  /**
+   * Returns a stable identifier for this source, used as the key of the in-memory and on-disk
+   * caches.
+   */
+  String getId();
+
+  /**
+   * Loads the catalog. If <code>cached</code> is not <code>null</code> and the source can tell that
+   * it is still current, <code>cached</code> itself is returned without parsing anything.
+   *
+   * @param cached   a snapshot from an earlier load of this source, or <code>null</code>
+   * @param listener receives partial results while parsing, may be <code>null</code>
+   */
+  CatalogCache.Snapshot load(CatalogCache.Snapshot cached, VideoProvider.ProgressListener listener) throws IOException;
+}
@@ -0,0 +1,134 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Holds the parsed catalogs for the lifetime of the process. Concurrent requests for the same feed
+ * share a single download, a refreshed catalog replaces the previous one in one step, and a catalog
+ * older than the time-to-live is revalidated on the next request.
+ */
+public class CatalogStore {
+
+  public static final long DEFAULT_TTL_MS = 30 * 60 * 1000;
+
+  private static CatalogStore sInstance;
+
+  private final Context mContext;
+  private final long mTtl;
+  private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+  private static class Entry {
+    CatalogCache.Snapshot snapshot;
+    long loadedAt;
+    FutureTask<CatalogCache.Snapshot> inFlight;
+  }
+
+  private CatalogStore(Context context, long ttl) {
+    mContext = context.getApplicationContext();
+    mTtl = ttl;
+  }
+
+  public static synchronized CatalogStore getInstance(Context context) {
+    if (null == sInstance) {
+      sInstance = new CatalogStore(context, DEFAULT_TTL_MS);
+    }
+    return sInstance;
+  }
+
+  /**
+   * Returns the catalog of <code>source</code>, loading it if it has never been loaded or has
+   * expired. If another thread is already loading it, this call waits for that load instead of
+   * starting a second one, and <code>listener</code> is not called.
+   */
+  public MediaRecords get(CatalogSource source, VideoProvider.ProgressListener listener) throws IOException {
+    return getCatalog(source, listener).getMedia();
+  }
+
+  /**
+   * Same as {@link #get}, but returns the indexed {@link Catalog}.
+   */
+  public Catalog getCatalog(CatalogSource source, VideoProvider.ProgressListener listener) throws IOException {
+    String id = source.getId();
+    FutureTask<CatalogCache.Snapshot> task;
+    boolean owner = false;
+    synchronized (this) {
+      Entry entry = mEntries.get(id);
+      if (null == entry) {
+        entry = new Entry();
+        mEntries.put(id, entry);
+      }
+      if (null != entry.snapshot && !isExpired(entry)) {
+        return entry.snapshot.catalog;
+      }
+      if (null == entry.inFlight) {
+        entry.inFlight = newLoadTask(entry, source, entry.snapshot, listener);
+        owner = true;
+      }
+      task = entry.inFlight;
+    }
+    if (owner) {
+      task.run();
+    }
+    try {
+      return task.get().catalog;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the catalog");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Failed to load the catalog", cause);
+    }
+  }
+
+  /**
+   * Marks the catalog of <code>source</code> as expired, so that the next {@link #get} revalidates
+   * it.
+   */
+  public synchronized void invalidate(CatalogSource source) {
+    Entry entry = mEntries.get(source.getId());
+    if (null != entry) {
+      entry.loadedAt = 0;
+    }
+  }
+
+  private boolean isExpired(Entry entry) {
+    return SystemClock.elapsedRealtime() - entry.loadedAt > mTtl;
+  }
+
+  private FutureTask<CatalogCache.Snapshot> newLoadTask(final Entry entry, final CatalogSource source,
+      final CatalogCache.Snapshot previous, final VideoProvider.ProgressListener listener) {
+    return new FutureTask<CatalogCache.Snapshot>(new Callable<CatalogCache.Snapshot>() {
+      @Override
+      public CatalogCache.Snapshot call() throws Exception {
+        CatalogCache.Snapshot snapshot = null;
+        try {
+          snapshot = VideoProvider.buildMedia(mContext, source, previous, listener);
+          return snapshot;
+        } finally {
+          synchronized (CatalogStore.this) {
+            if (null != snapshot) {
+              entry.snapshot = snapshot;
+              entry.loadedAt = SystemClock.elapsedRealtime();
+            }
+            entry.inFlight = null;
+          }
+        }
+      }
+    });
+  }
+}
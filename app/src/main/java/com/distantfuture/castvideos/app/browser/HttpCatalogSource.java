@@ -0,0 +1,104 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Reads the catalog feed over HTTP. A cached snapshot is revalidated with its ETag and
+ * Last-Modified validators and returned as is when the server answers 304 Not Modified.
+ * <p/>
+ * Interrupting the loading thread stops the download at the next read. A read that is blocked on
+ * a stalled connection cannot be interrupted, so a load holds its thread for at most
+ * {@code CONNECT_TIMEOUT_MS} or {@code READ_TIMEOUT_MS} after it was interrupted.
+ */
+public class HttpCatalogSource implements CatalogSource {
+
+  private static final String TAG = "HttpCatalogSource";
+  private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+  private static final int READ_TIMEOUT_MS = 15 * 1000;
+  private final String mUrl;
+
+  public HttpCatalogSource(String url) {
+    mUrl = url;
+  }
+
+  @Override
+  public String getId() {
+    return mUrl;
+  }
+
+  @Override
+  public CatalogCache.Snapshot load(CatalogCache.Snapshot cached, VideoProvider.ProgressListener listener) throws IOException {
+    InputStream is = null;
+    HttpURLConnection urlConnection = null;
+    try {
+      java.net.URL url = new java.net.URL(mUrl);
+      urlConnection = (HttpURLConnection) url.openConnection();
+      urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+      urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+      if (null != cached) {
+        if (null != cached.etag) {
+          urlConnection.setRequestProperty("If-None-Match", cached.etag);
+        }
+        if (null != cached.lastModified) {
+          urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+        }
+      }
+      if (null != cached && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        Log.d(TAG, "Catalog not modified since the cached copy");
+        return cached;
+      }
+      is = new BufferedInputStream(new InterruptibleInputStream(urlConnection.getInputStream()),
+          VideoProvider.BUFFER_SIZE);
+      Catalog catalog = new VideoProvider(listener).parseStream(is);
+      return new CatalogCache.Snapshot(urlConnection.getHeaderField("ETag"),
+          urlConnection.getHeaderField("Last-Modified"), catalog);
+    } finally {
+      if (null != is) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+      if (null != urlConnection) {
+        urlConnection.disconnect();
+      }
+    }
+  }
+
+  /*
+   * Fails the next read once the reading thread has been interrupted, so that a feed that trickles
+   * in is not read to the end after its load was given up.
+   */
+  private static class InterruptibleInputStream extends FilterInputStream {
+
+    InterruptibleInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      checkInterrupted();
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      checkInterrupted();
+      return super.read(buffer, offset, count);
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("Catalog download was interrupted");
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a catalog feed in the same JSON format as the live one from a file or from the
+ * application's assets. A file is only parsed again when its size or modification time changes; an
+ * asset can only change with the APK and is parsed on every load.
+ */
+public class LocalCatalogSource implements CatalogSource {
+
+  private final Context mContext;
+  private final File mFile;
+  private final String mAsset;
+
+  private LocalCatalogSource(Context context, File file, String asset) {
+    mContext = context;
+    mFile = file;
+    mAsset = asset;
+  }
+
+  public static LocalCatalogSource fromFile(File file) {
+    return new LocalCatalogSource(null, file, null);
+  }
+
+  public static LocalCatalogSource fromAsset(Context context, String assetName) {
+    return new LocalCatalogSource(context.getApplicationContext(), null, assetName);
+  }
+
+  @Override
+  public String getId() {
+    return null != mFile ? "file://" + mFile.getAbsolutePath() : "asset:///" + mAsset;
+  }
+
+  @Override
+  public CatalogCache.Snapshot load(CatalogCache.Snapshot cached, VideoProvider.ProgressListener listener) throws IOException {
+    String etag = null;
+    if (null != mFile) {
+      etag = mFile.length() + "-" + mFile.lastModified();
+      if (null != cached && etag.equals(cached.etag)) {
+        return cached;
+      }
+    }
+    InputStream is = null;
+    try {
+      if (null != mFile) {
+        is = new BufferedInputStream(new FileInputStream(mFile), VideoProvider.BUFFER_SIZE);
+      } else {
+        is = new BufferedInputStream(mContext.getAssets().open(mAsset), VideoProvider.BUFFER_SIZE);
+      }
+      return new CatalogCache.Snapshot(etag, null, new VideoProvider(listener).parseStream(is));
+    } finally {
+      if (null != is) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
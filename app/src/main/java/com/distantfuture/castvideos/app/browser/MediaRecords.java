@@ -0,0 +1,199 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.net.Uri;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.common.images.WebImage;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable list of videos stored column by column. Each item is a handful of strings: repeated
+ * values such as the studio or content type are shared, and the image URLs are kept whole so that
+ * binding a row does not build them again. {@link #get(int)} builds a new {@link MediaInfo} on
+ * every call, so callers that only display an item should use the field accessors and materialize
+ * it only when it is opened or cast.
+ */
+public class MediaRecords extends AbstractList<MediaInfo> {
+
+  private final int mSize;
+  private final String[] mTitles;
+  private final String[] mSubtitles;
+  private final String[] mStudios;
+  private final String[] mContentIds;
+  private final String[] mContentTypes;
+  private final String[] mImageUrls;
+  private final String[] mBigImageUrls;
+
+  private MediaRecords(Builder builder, boolean trim) {
+    mSize = builder.mSize;
+    if (trim) {
+      mTitles = Arrays.copyOf(builder.mTitles, mSize);
+      mSubtitles = Arrays.copyOf(builder.mSubtitles, mSize);
+      mStudios = Arrays.copyOf(builder.mStudios, mSize);
+      mContentIds = Arrays.copyOf(builder.mContentIds, mSize);
+      mContentTypes = Arrays.copyOf(builder.mContentTypes, mSize);
+      mImageUrls = Arrays.copyOf(builder.mImageUrls, mSize);
+      mBigImageUrls = Arrays.copyOf(builder.mBigImageUrls, mSize);
+    } else {
+      mTitles = builder.mTitles;
+      mSubtitles = builder.mSubtitles;
+      mStudios = builder.mStudios;
+      mContentIds = builder.mContentIds;
+      mContentTypes = builder.mContentTypes;
+      mImageUrls = builder.mImageUrls;
+      mBigImageUrls = builder.mBigImageUrls;
+    }
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * Builds the {@link MediaInfo} for the item at <code>index</code>.
+   */
+  @Override
+  public MediaInfo get(int index) {
+    if (index < 0 || index >= mSize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+    }
+    MediaMetadata movieMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MOVIE);
+
+    movieMetadata.putString(MediaMetadata.KEY_SUBTITLE, mSubtitles[index]);
+    movieMetadata.putString(MediaMetadata.KEY_TITLE, mTitles[index]);
+    movieMetadata.putString(MediaMetadata.KEY_STUDIO, mStudios[index]);
+    movieMetadata.addImage(new WebImage(Uri.parse(getImageUrl(index))));
+    movieMetadata.addImage(new WebImage(Uri.parse(getBigImageUrl(index))));
+
+    return new MediaInfo.Builder(mContentIds[index]).setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
+        .setContentType(mContentTypes[index])
+        .setMetadata(movieMetadata)
+        .build();
+  }
+
+  public String getTitle(int index) {
+    return mTitles[index];
+  }
+
+  public String getSubtitle(int index) {
+    return mSubtitles[index];
+  }
+
+  public String getStudio(int index) {
+    return mStudios[index];
+  }
+
+  public String getContentId(int index) {
+    return mContentIds[index];
+  }
+
+  public String getContentType(int index) {
+    return mContentTypes[index];
+  }
+
+  /**
+   * Returns the URL of the small (480x270) image.
+   */
+  public String getImageUrl(int index) {
+    return mImageUrls[index];
+  }
+
+  /**
+   * Returns the URL of the large (780x1200) image.
+   */
+  public String getBigImageUrl(int index) {
+    return mBigImageUrls[index];
+  }
+
+  /**
+   * Collects items column by column. {@link #snapshot()} may be called repeatedly while items are
+   * still being added, and {@link #build()} once they all are.
+   * <p/>
+   * The builder only ever appends: a slot is written once, and a full column is replaced by a larger
+   * copy rather than changed in place. A snapshot can therefore share the columns as they are and
+   * only remember how many items they held, so taking one costs the same at any catalog size.
+   */
+  public static class Builder {
+    private int mSize;
+    private String[] mTitles = new String[16];
+    private String[] mSubtitles = new String[16];
+    private String[] mStudios = new String[16];
+    private String[] mContentIds = new String[16];
+    private String[] mContentTypes = new String[16];
+    private String[] mImageUrls = new String[16];
+    private String[] mBigImageUrls = new String[16];
+
+    private final Map<String, String> mPool = new HashMap<String, String>();
+
+    public Builder add(String title, String subTitle, String studio, String contentId, String contentType,
+        String imageUrl, String bigImageUrl) {
+      if (mSize == mTitles.length) {
+        grow();
+      }
+      mTitles[mSize] = title;
+      mSubtitles[mSize] = intern(subTitle);
+      mStudios[mSize] = intern(studio);
+      mContentIds[mSize] = contentId;
+      mContentTypes[mSize] = intern(contentType);
+      mImageUrls[mSize] = imageUrl;
+      mBigImageUrls[mSize] = bigImageUrl;
+      mSize++;
+      return this;
+    }
+
+    public Builder add(MediaRecords records, int index) {
+      return add(records.getTitle(index), records.getSubtitle(index), records.getStudio(index),
+          records.getContentId(index), records.getContentType(index), records.getImageUrl(index),
+          records.getBigImageUrl(index));
+    }
+
+    public int size() {
+      return mSize;
+    }
+
+    /**
+     * Returns the items added so far, without copying them. Adding more items later does not change
+     * the returned list. A snapshot taken on one thread can be handed to another through anything
+     * that orders memory, such as a Handler post.
+     */
+    public MediaRecords snapshot() {
+      return new MediaRecords(this, false);
+    }
+
+    /**
+     * Returns the items added so far in columns trimmed to size, for keeping.
+     */
+    public MediaRecords build() {
+      return new MediaRecords(this, true);
+    }
+
+    private String intern(String value) {
+      if (null == value) {
+        return null;
+      }
+      String pooled = mPool.get(value);
+      if (null == pooled) {
+        mPool.put(value, value);
+        pooled = value;
+      }
+      return pooled;
+    }
+
+    private void grow() {
+      int capacity = mSize * 2;
+      mTitles = Arrays.copyOf(mTitles, capacity);
+      mSubtitles = Arrays.copyOf(mSubtitles, capacity);
+      mStudios = Arrays.copyOf(mStudios, capacity);
+      mContentIds = Arrays.copyOf(mContentIds, capacity);
+      mContentTypes = Arrays.copyOf(mContentTypes, capacity);
+      mImageUrls = Arrays.copyOf(mImageUrls, capacity);
+      mBigImageUrls = Arrays.copyOf(mBigImageUrls, capacity);
+    }
+  }
+}
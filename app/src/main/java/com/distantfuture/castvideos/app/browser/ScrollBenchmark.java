@@ -0,0 +1,115 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.os.Debug;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Measures how the video list performs while it scrolls. From the moment the list starts scrolling
+ * until it comes to rest, the time between frames is taken from {@link Choreographer}, and every
+ * row bind is timed and its allocations on the main thread are counted. Each scroll is then logged
+ * as one line: frames, average and worst frame time, frames that missed a 60Hz vsync, and the
+ * average time, allocations and bytes per bind.
+ * <p/>
+ * Allocation counting slows the whole process down, so only debug builds create a benchmark. To
+ * measure a large catalog, pick the generated catalog in the preferences and fling through it.
+ */
+class ScrollBenchmark implements Choreographer.FrameCallback {
+
+  private static final String TAG = "ScrollBenchmark";
+  private static final long FRAME_NANOS = 1000000000L / 60;
+
+  private final Choreographer mChoreographer = Choreographer.getInstance();
+  private boolean mRunning;
+  private long mLastFrameNanos;
+  private int mFrames;
+  private int mMissedFrames;
+  private long mTotalFrameNanos;
+  private long mMaxFrameNanos;
+
+  private int mBinds;
+  private long mBindNanos;
+  private long mBindAllocations;
+  private long mBindBytes;
+  private long mBindStart;
+  private int mAllocationsAtStart;
+  private int mBytesAtStart;
+
+  void start() {
+    if (mRunning) {
+      return;
+    }
+    mRunning = true;
+    mLastFrameNanos = 0;
+    mFrames = 0;
+    mMissedFrames = 0;
+    mTotalFrameNanos = 0;
+    mMaxFrameNanos = 0;
+    mBinds = 0;
+    mBindNanos = 0;
+    mBindAllocations = 0;
+    mBindBytes = 0;
+    Debug.startAllocCounting();
+    mChoreographer.postFrameCallback(this);
+  }
+
+  void stop() {
+    if (!mRunning) {
+      return;
+    }
+    mRunning = false;
+    mChoreographer.removeFrameCallback(this);
+    Debug.stopAllocCounting();
+    if (0 == mFrames) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(mFrames).append(" frames, avg ").append(mTotalFrameNanos / mFrames / 1000)
+        .append("us, max ").append(mMaxFrameNanos / 1000).append("us, ").append(mMissedFrames)
+        .append(" missed vsync");
+    if (mBinds > 0) {
+      sb.append("; ").append(mBinds).append(" binds, avg ").append(mBindNanos / mBinds / 1000)
+          .append("us, ").append((float) mBindAllocations / mBinds).append(" allocations and ")
+          .append(mBindBytes / mBinds).append(" bytes per bind");
+    }
+    Log.d(TAG, sb.toString());
+  }
+
+  void beginBind() {
+    if (!mRunning) {
+      return;
+    }
+    mAllocationsAtStart = Debug.getThreadAllocCount();
+    mBytesAtStart = Debug.getThreadAllocSize();
+    mBindStart = System.nanoTime();
+  }
+
+  void endBind() {
+    if (!mRunning) {
+      return;
+    }
+    mBindNanos += System.nanoTime() - mBindStart;
+    mBindAllocations += Debug.getThreadAllocCount() - mAllocationsAtStart;
+    mBindBytes += Debug.getThreadAllocSize() - mBytesAtStart;
+    mBinds++;
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    if (!mRunning) {
+      return;
+    }
+    if (0 != mLastFrameNanos) {
+      long frame = frameTimeNanos - mLastFrameNanos;
+      mFrames++;
+      mTotalFrameNanos += frame;
+      mMaxFrameNanos = Math.max(mMaxFrameNanos, frame);
+      // a frame that took noticeably longer than one vsync interval skipped at least one
+      if (frame > FRAME_NANOS * 3 / 2) {
+        mMissedFrames++;
+      }
+    }
+    mLastFrameNanos = frameTimeNanos;
+    mChoreographer.postFrameCallback(this);
+  }
+}
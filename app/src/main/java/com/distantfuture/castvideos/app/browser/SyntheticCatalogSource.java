@@ -0,0 +1,85 @@
+package com.distantfuture.castvideos.app.browser;
+
+import android.content.Context;
+import android.util.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Generates a feed of a given number of videos, in the live feed's JSON format, split into
+ * categories of {@code CATEGORY_SIZE} items. The feed is written once to the cache directory and
+ * then parsed like any other file, so loading it exercises the whole ingestion path without a
+ * network. The content is deterministic for a given item count.
+ */
+public class SyntheticCatalogSource implements CatalogSource {
+
+  private static final int CATEGORY_SIZE = 500;
+  private static final String[] STUDIOS = {"Blender Foundation", "Google", "Garage419", "Synthetic Studio"};
+
+  private final Context mContext;
+  private final int mCount;
+
+  public SyntheticCatalogSource(Context context, int count) {
+    mContext = context.getApplicationContext();
+    mCount = count;
+  }
+
+  @Override
+  public String getId() {
+    return "synthetic://" + mCount;
+  }
+
+  @Override
+  public CatalogCache.Snapshot load(CatalogCache.Snapshot cached, VideoProvider.ProgressListener listener) throws IOException {
+    File file = new File(mContext.getCacheDir(), "synthetic-" + mCount + ".json");
+    if (!file.exists()) {
+      generate(file);
+    }
+    return LocalCatalogSource.fromFile(file).load(cached, listener);
+  }
+
+  private void generate(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    JsonWriter writer = new JsonWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmp),
+        VideoProvider.BUFFER_SIZE), "UTF-8"));
+    try {
+      writer.beginObject();
+      writer.name("categories").beginArray();
+      for (int start = 0; start < mCount; start += CATEGORY_SIZE) {
+        writer.beginObject();
+        writer.name("name").value("Category " + (start / CATEGORY_SIZE + 1));
+        writer.name("videos").beginArray();
+        for (int i = start; i < Math.min(start + CATEGORY_SIZE, mCount); i++) {
+          writeVideo(writer, i);
+        }
+        writer.endArray();
+        writer.endObject();
+      }
+      writer.endArray();
+      writer.endObject();
+    } finally {
+      writer.close();
+    }
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Failed to rename " + tmp);
+    }
+  }
+
+  private static void writeVideo(JsonWriter writer, int i) throws IOException {
+    String studio = STUDIOS[i % STUDIOS.length];
+    writer.beginObject();
+    writer.name("subtitle").value("By " + studio);
+    writer.name("sources").beginArray().value("http://example.com/synthetic/video" + i + ".mp4").endArray();
+    writer.name("thumb").value("images/thumb" + i + ".jpg");
+    writer.name("image-480x270").value("images_480x270/video" + i + ".jpg");
+    writer.name("image-780x1200").value("images_780x1200/video" + i + ".jpg");
+    writer.name("title").value("Synthetic Video " + i);
+    writer.name("studio").value(studio);
+    writer.endObject();
+  }
+}
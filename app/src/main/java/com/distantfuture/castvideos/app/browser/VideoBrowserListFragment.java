@@ -14,10 +14,9 @@ import com.distantfuture.castvideos.app.R;
 import com.distantfuture.castvideos.app.LocalPlayerActivity;
 import com.google.android.gms.cast.MediaInfo;
 
-import java.util.List;
-
-public class VideoBrowserListFragment extends ListFragment implements LoaderManager.LoaderCallbacks<List<MediaInfo>> {
+public class VideoBrowserListFragment extends ListFragment implements LoaderManager.LoaderCallbacks<MediaRecords> {
   private VideoListAdapter mAdapter;
+  private String mCatalogSource;
 
   @Override
   public void onActivityCreated(Bundle savedInstanceState) {
@@ -28,12 +27,23 @@ public class VideoBrowserListFragment extends ListFragment implements LoaderMana
     mAdapter = new VideoListAdapter(getActivity());
     setEmptyText(getString(R.string.no_video_found));
     setListAdapter(mAdapter);
+    getListView().setOnScrollListener(mAdapter);
     setListShown(false);
     getLoaderManager().initLoader(0, null, this);
   }
 
   @Override
-  public void onLoadFinished(Loader<List<MediaInfo>> arg0, List<MediaInfo> data) {
+  public void onResume() {
+    super.onResume();
+    if (null != mCatalogSource && !mCatalogSource.equals(VideoItemLoader.newCatalogSource(getActivity()).getId())) {
+      // the catalog, or the size of the generated one, was switched in the preferences
+      setListShown(false);
+      getLoaderManager().restartLoader(0, null, this);
+    }
+  }
+
+  @Override
+  public void onLoadFinished(Loader<MediaRecords> arg0, MediaRecords data) {
     mAdapter.setData(data);
     if (isResumed()) {
       setListShown(true);
@@ -43,7 +53,7 @@ public class VideoBrowserListFragment extends ListFragment implements LoaderMana
   }
 
   @Override
-  public void onLoaderReset(Loader<List<MediaInfo>> arg0) {
+  public void onLoaderReset(Loader<MediaRecords> arg0) {
     mAdapter.setData(null);
   }
 
@@ -61,9 +71,9 @@ public class VideoBrowserListFragment extends ListFragment implements LoaderMana
   }
 
   @Override
-  public Loader<List<MediaInfo>> onCreateLoader(int arg0, Bundle arg1) {
-    final String CATALOG_URL = "http://commondatastorage.googleapis.com/gtv-videos-bucket/sample/" + "videos-enhanced-b.json";
-
-    return new VideoItemLoader(getActivity(), CATALOG_URL);
+  public Loader<MediaRecords> onCreateLoader(int arg0, Bundle arg1) {
+    CatalogSource source = VideoItemLoader.newCatalogSource(getActivity());
+    mCatalogSource = source.getId();
+    return new VideoItemLoader(getActivity(), source);
   }
 }
@@ -2,33 +2,102 @@
 package com.distantfuture.castvideos.app.browser;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 
-import com.google.android.gms.cast.MediaInfo;
+import com.distantfuture.castvideos.app.CastPreference;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
-public class VideoItemLoader extends AsyncTaskLoader<List<MediaInfo>> {
+public class VideoItemLoader extends AsyncTaskLoader<MediaRecords> {
 
   private static final String TAG = "VideoItemLoader";
-  private final String mUrl;
+  public static final String CATALOG_URL = "http://commondatastorage.googleapis.com/gtv-videos-bucket/sample/" + "videos-enhanced-b.json";
+  public static final String SOURCE_HTTP = "http";
+  public static final String SOURCE_HTTP_AND_LOCAL = "http_and_local";
+  public static final String SOURCE_LOCAL = "local";
+  public static final String SOURCE_SYNTHETIC = "synthetic";
+  private static final String LOCAL_CATALOG_NAME = "catalog.json";
+
+  private final CatalogSource mSource;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
 
   public VideoItemLoader(Context context, String url) {
+    this(context, new HttpCatalogSource(url));
+  }
+
+  public VideoItemLoader(Context context, CatalogSource source) {
     super(context);
-    mUrl = url;
+    mSource = source;
+  }
+
+  /**
+   * Returns the source of the catalog chosen in the preferences: the online feed, the online feed
+   * merged with a local file, the local file alone for offline use, or a generated catalog of the
+   * chosen size.
+   */
+  public static CatalogSource newCatalogSource(Context context) {
+    String source = CastPreference.getCatalogSource(context);
+    if (SOURCE_LOCAL.equals(source)) {
+      return LocalCatalogSource.fromFile(getLocalCatalogFile(context));
+    } else if (SOURCE_SYNTHETIC.equals(source)) {
+      return new SyntheticCatalogSource(context, CastPreference.getSyntheticCatalogSize(context));
+    } else if (SOURCE_HTTP_AND_LOCAL.equals(source)) {
+      List<CatalogSource> sources = new ArrayList<CatalogSource>();
+      sources.add(new HttpCatalogSource(CATALOG_URL));
+      sources.add(LocalCatalogSource.fromFile(getLocalCatalogFile(context)));
+      return new AggregateCatalogSource(context, sources);
+    }
+    return new HttpCatalogSource(CATALOG_URL);
+  }
+
+  /**
+   * Returns the file read by the local catalog sources, <code>catalog.json</code> in the
+   * application's external files directory, where it can be pushed without root.
+   */
+  public static File getLocalCatalogFile(Context context) {
+    File dir = context.getExternalFilesDir(null);
+    if (null == dir) {
+      // external storage is not mounted
+      dir = context.getFilesDir();
+    }
+    return new File(dir, LOCAL_CATALOG_NAME);
   }
 
   @Override
-  public List<MediaInfo> loadInBackground() {
+  public MediaRecords loadInBackground() {
     try {
-      return VideoProvider.buildMedia(mUrl);
+      return CatalogStore.getInstance(getContext()).get(mSource, new VideoProvider.ProgressListener() {
+        @Override
+        public void onProgress(MediaRecords mediaSoFar) {
+          publishProgress(mediaSoFar);
+        }
+      });
     } catch (Exception e) {
       Log.e(TAG, "Failed to fetch media data", e);
       return null;
     }
   }
 
+  /*
+   * Partial results are handed to the main thread ahead of the final one, which AsyncTaskLoader
+   * posts to the same looper once loadInBackground() returns, so pages always arrive in order.
+   */
+  private void publishProgress(final MediaRecords mediaSoFar) {
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (isStarted() && !isAbandoned()) {
+          deliverResult(mediaSoFar);
+        }
+      }
+    });
+  }
+
   @Override
   protected void onStartLoading() {
     super.onStartLoading();
@@ -1,78 +1,155 @@
-
 package com.distantfuture.castvideos.app.browser;
 
 import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.androidquery.AQuery;
+import com.distantfuture.castcompanionlibrary.lib.utils.ArtworkCache;
+import com.distantfuture.castvideos.app.BuildConfig;
 import com.distantfuture.castvideos.app.R;
 import com.google.android.gms.cast.MediaInfo;
-import com.google.android.gms.cast.MediaMetadata;
-
-import java.util.List;
 
 /**
- * An {@link ArrayAdapter} to populate the list of videos.
+ * An adapter to populate the list of videos. Rows are bound straight from the {@link MediaRecords}
+ * columns; a {@link MediaInfo} is only built when an item is requested through {@link #getItem}.
+ * Once the list comes to rest, the large artwork of the rows it shows is prefetched into the cast
+ * library's {@link ArtworkCache}, so the cast controller can show it as soon as the video is
+ * picked. Nothing is prefetched while the list scrolls, and prefetches still queued when it starts
+ * scrolling again are dropped, so a fling through the catalog does not compete with the thumbnails
+ * on screen.
+ * <p/>
+ * Each row keeps its views and its {@link AQuery} in a {@link ViewHolder}, and the columns hold
+ * every string a row shows, so binding a recycled row allocates nothing beyond what the AQuery
+ * image request itself needs. Debug builds measure the frame times and the time and allocations per
+ * bind of every scroll with a {@link ScrollBenchmark}.
  */
-public class VideoListAdapter extends ArrayAdapter<MediaInfo> {
+public class VideoListAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
 
-  private final Context mContext;
+  private final LayoutInflater mInflater;
+  private final ArtworkCache mArtworkCache;
   private final float mAspectRatio = 9f / 16f;
+  private MediaRecords mData;
+  private final ScrollBenchmark mBenchmark = BuildConfig.DEBUG ? new ScrollBenchmark() : null;
+  private int mScrollState = SCROLL_STATE_IDLE;
+  private int mFirstVisible;
+  private int mVisibleCount;
 
   public VideoListAdapter(Context context) {
-    super(context, 0);
-    this.mContext = context;
+    this.mInflater = LayoutInflater.from(context);
+    this.mArtworkCache = ArtworkCache.getInstance(context);
   }
 
   @Override
-  public View getView(int position, View convertView, ViewGroup parent) {
+  public int getCount() {
+    return null == mData ? 0 : mData.size();
+  }
 
-    ViewHolder holder;
-    LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-    MediaMetadata mm = getItem(position).getMetadata();
+  @Override
+  public MediaInfo getItem(int position) {
+    return mData.get(position);
+  }
 
+  @Override
+  public long getItemId(int position) {
+    return position;
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    if (null != mBenchmark) {
+      mBenchmark.beginBind();
+    }
+    ViewHolder holder;
     if (convertView == null) {
-      convertView = inflater.inflate(R.layout.browse_row, null);
-      holder = new ViewHolder();
-      holder.imgView = (ImageView) convertView.findViewById(R.id.imageView1);
-      holder.titleView = (TextView) convertView.findViewById(R.id.textView1);
-      holder.descrView = (TextView) convertView.findViewById(R.id.textView2);
+      convertView = mInflater.inflate(R.layout.browse_row, parent, false);
+      holder = new ViewHolder(convertView);
       convertView.setTag(holder);
     } else {
       holder = (ViewHolder) convertView.getTag();
     }
 
-    AQuery aq = new AQuery(convertView);
-    aq.id(holder.imgView)
+    holder.aq.id(holder.imgView)
         .width(110)
-        .image(mm.getImages()
-            .get(0)
-            .getUrl()
-            .toString(), true, true, 0, R.drawable.default_video, null, 0, mAspectRatio);
-    aq.id(holder.titleView).text(mm.getString(MediaMetadata.KEY_TITLE));
-    aq.id(holder.descrView).text(mm.getString(MediaMetadata.KEY_SUBTITLE));
+        .image(mData.getImageUrl(position), true, true, 0, R.drawable.default_video, null, 0, mAspectRatio);
+    holder.titleView.setText(mData.getTitle(position));
+    holder.descrView.setText(mData.getSubtitle(position));
 
+    if (null != mBenchmark) {
+      mBenchmark.endBind();
+    }
     return convertView;
   }
 
-  private class ViewHolder {
-    TextView titleView;
-    TextView descrView;
-    ImageView imgView;
+  @Override
+  public void onScrollStateChanged(AbsListView view, int scrollState) {
+    mScrollState = scrollState;
+    if (scrollState == SCROLL_STATE_IDLE) {
+      if (null != mBenchmark) {
+        mBenchmark.stop();
+      }
+      prefetchVisible();
+    } else {
+      if (null != mBenchmark) {
+        mBenchmark.start();
+      }
+      mArtworkCache.cancelPrefetches();
+    }
+  }
+
+  @Override
+  public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+    if (firstVisibleItem == mFirstVisible && visibleItemCount == mVisibleCount) {
+      return;
+    }
+    mFirstVisible = firstVisibleItem;
+    mVisibleCount = visibleItemCount;
+    // also called when the list is laid out, for example when the first page of data arrives
+    if (mScrollState == SCROLL_STATE_IDLE) {
+      prefetchVisible();
+    }
   }
 
-  public void setData(List<MediaInfo> data) {
-    clear();
-    if (data != null) {
-      for (MediaInfo item : data) {
-        add(item);
-      }
+  private void prefetchVisible() {
+    int end = Math.min(mFirstVisible + mVisibleCount, getCount());
+    for (int position = Math.max(mFirstVisible, 0); position < end; position++) {
+      mArtworkCache.prefetch(mData.getBigImageUrl(position));
     }
+  }
+
+  private static class ViewHolder {
+    final AQuery aq;
+    final TextView titleView;
+    final TextView descrView;
+    final ImageView imgView;
+
+    ViewHolder(View row) {
+      aq = new AQuery(row);
+      imgView = (ImageView) row.findViewById(R.id.imageView1);
+      titleView = (TextView) row.findViewById(R.id.textView1);
+      descrView = (TextView) row.findViewById(R.id.textView2);
+    }
+  }
 
+  /**
+   * Replaces the whole data set, notifying observers once.
+   */
+  public void setData(MediaRecords data) {
+    if (data == mData) {
+      return;
+    }
+    mData = data;
+    // makes the next onScroll() prefetch for the new data, even if the same rows are visible
+    mFirstVisible = -1;
+    if (null == data) {
+      notifyDataSetInvalidated();
+    } else {
+      notifyDataSetChanged();
+    }
   }
 }
@@ -1,29 +1,19 @@
-
 package com.distantfuture.castvideos.app.browser;
 
-import android.net.Uri;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import com.google.android.gms.cast.MediaInfo;
-import com.google.android.gms.cast.MediaMetadata;
-import com.google.android.gms.common.images.WebImage;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URLConnection;
-import java.util.ArrayList;
-import java.util.List;
 
 public class VideoProvider {
 
   private static final String TAG = "VideoProvider";
+  static final int BUFFER_SIZE = 8 * 1024;
   private static String TAG_MEDIA = "videos";
   private static String THUMB_PREFIX_URL = "http://commondatastorage.googleapis.com/gtv-videos-bucket/sample/";
   private static String TAG_CATEGORIES = "categories";
@@ -35,83 +25,194 @@ public class VideoProvider {
   private static String TAG_IMG_780_1200 = "image-780x1200";
   private static String TAG_TITLE = "title";
 
-  private static List<MediaInfo> mediaList;
+  private static final int PAGE_SIZE = 100;
+
+  private final ProgressListener mListener;
+  private int mLastPublished;
+
+  /**
+   * Receives the partially parsed catalog while {@link CatalogStore#get} is still
+   * running. Called on the parsing thread at the end of every category and after every
+   * {@code PAGE_SIZE} items, each time with a new snapshot that the receiver may keep.
+   */
+  public interface ProgressListener {
+    void onProgress(MediaRecords mediaSoFar);
+  }
+
+  VideoProvider(ProgressListener listener) {
+    mListener = listener;
+  }
+
+  /*
+   * Pulls the feed through a JsonReader so that each entry of a category's videos[] array becomes a
+   * record as soon as its closing brace is read. Only the reader's buffer and the current entry's
+   * fields are held while parsing, never the whole document.
+   */
+  Catalog parseStream(InputStream is) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    Catalog.Builder result = new Catalog.Builder();
+    JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (TAG_CATEGORIES.equals(reader.nextName())) {
+        readCategories(reader, result);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    Catalog catalog = result.build();
+    Log.d(TAG, "Parsed and indexed " + catalog.size() + " media items in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    return catalog;
+  }
+
+  public static MediaRecords buildMedia(Context context, String url) throws IOException {
+    return CatalogStore.getInstance(context).get(new HttpCatalogSource(url), null);
+  }
+
+  public static Catalog buildCatalog(Context context, CatalogSource source) throws IOException {
+    return CatalogStore.getInstance(context).getCatalog(source, null);
+  }
 
-  protected JSONObject parseUrl(String urlString) {
-    InputStream is = null;
+  /**
+   * Loads the catalog from <code>source</code>, revalidating <code>previous</code>, or when that is
+   * <code>null</code> the snapshot cached on disk by an earlier run. The snapshot being revalidated
+   * is handed to <code>listener</code> first; the feed is only parsed again if it has changed, or if
+   * there is nothing to revalidate.
+   */
+  static CatalogCache.Snapshot buildMedia(Context context, CatalogSource source, CatalogCache.Snapshot previous,
+      ProgressListener listener) throws IOException {
+
+    CatalogCache cache = new CatalogCache(context);
+    CatalogCache.Snapshot cached = null != previous ? previous : cache.read(source.getId());
+    if (null != cached && null != listener) {
+      listener.onProgress(cached.catalog.getMedia());
+      // the cached list is already showing; don't replace it with partial pages of the new one
+      listener = null;
+    }
+    CatalogCache.Snapshot snapshot;
     try {
-      java.net.URL url = new java.net.URL(urlString);
-      URLConnection urlConnection = url.openConnection();
-      is = new BufferedInputStream(urlConnection.getInputStream());
-      BufferedReader reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream(), "iso-8859-1"), 8);
-      StringBuilder sb = new StringBuilder();
-      String line = null;
-      while ((line = reader.readLine()) != null) {
-        sb.append(line);
+      snapshot = source.load(cached, listener);
+    } catch (IOException e) {
+      if (null == cached) {
+        throw e;
       }
-      String json = sb.toString();
-      return new JSONObject(json);
-    } catch (Exception e) {
-      Log.d(TAG, "Failed to parse the json for media list", e);
-      return null;
-    } finally {
-      if (null != is) {
-        try {
-          is.close();
-        } catch (IOException e) {
-          // ignore
+      Log.d(TAG, "Failed to revalidate the catalog, using the cached copy", e);
+      snapshot = cached;
+    }
+    if (snapshot != cached) {
+      cache.write(source.getId(), snapshot);
+    }
+    return snapshot;
+  }
+
+  private void publish(Catalog.Builder result) {
+    if (null == mListener || result.size() == mLastPublished) {
+      return;
+    }
+    mLastPublished = result.size();
+    mListener.onProgress(result.snapshotMedia());
+  }
+
+  private void readCategories(JsonReader reader, Catalog.Builder result) throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      int start = result.size();
+      String category = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (getJsonMediaTag().equals(name)) {
+          readVideos(reader, result);
+        } else if (TAG_NAME.equals(name)) {
+          category = nextString(reader);
+        } else {
+          reader.skipValue();
         }
       }
+      reader.endObject();
+      result.addCategory(category, start, result.size());
+      publish(result);
     }
+    reader.endArray();
   }
 
-  public static List<MediaInfo> buildMedia(String url) throws JSONException {
-
-    if (null != mediaList) {
-      return mediaList;
+  private void readVideos(JsonReader reader, Catalog.Builder result) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return;
     }
-    mediaList = new ArrayList<MediaInfo>();
-    JSONObject jsonObj = new VideoProvider().parseUrl(url);
-    JSONArray categories = jsonObj.getJSONArray(TAG_CATEGORIES);
-    if (null != categories) {
-      for (int i = 0; i < categories.length(); i++) {
-        JSONObject category = categories.getJSONObject(i);
-        category.getString(TAG_NAME);
-        JSONArray videos = category.getJSONArray(getJsonMediaTag());
-        if (null != videos) {
-          for (int j = 0; j < videos.length(); j++) {
-            JSONObject video = videos.getJSONObject(j);
-            String subTitle = video.getString(TAG_SUBTITLE);
-            JSONArray videoUrls = video.getJSONArray(TAG_SOURCES);
-            if (null == videoUrls || videoUrls.length() == 0) {
-              continue;
-            }
-            String videoUrl = videoUrls.getString(0);
-            String imageurl = getThumbPrefix() + video.getString(TAG_THUMB);
-            String bigImageurl = getThumbPrefix() + video.getString(TAG_IMG_780_1200);
-            String title = video.getString(TAG_TITLE);
-            String studio = video.getString(TAG_STUDIO);
-            mediaList.add(buildMediaInfo(title, studio, subTitle, videoUrl, imageurl, bigImageurl));
-          }
-        }
+    reader.beginArray();
+    while (reader.hasNext()) {
+      readVideo(reader, result);
+      if (result.size() - mLastPublished >= PAGE_SIZE) {
+        publish(result);
       }
     }
-    return mediaList;
+    reader.endArray();
   }
 
-  private static MediaInfo buildMediaInfo(String title, String subTitle, String studio, String url, String imgUrl, String bigImageUrl) {
-    MediaMetadata movieMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MOVIE);
+  private void readVideo(JsonReader reader, Catalog.Builder result) throws IOException {
+    String subTitle = null;
+    String videoUrl = null;
+    String image = null;
+    String bigImage = null;
+    String title = null;
+    String studio = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (TAG_SUBTITLE.equals(name)) {
+        subTitle = nextString(reader);
+      } else if (TAG_SOURCES.equals(name)) {
+        videoUrl = readFirstSource(reader);
+      } else if (TAG_THUMB.equals(name)) {
+        image = nextString(reader);
+      } else if (TAG_IMG_780_1200.equals(name)) {
+        bigImage = nextString(reader);
+      } else if (TAG_TITLE.equals(name)) {
+        title = nextString(reader);
+      } else if (TAG_STUDIO.equals(name)) {
+        studio = nextString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
 
-    movieMetadata.putString(MediaMetadata.KEY_SUBTITLE, subTitle);
-    movieMetadata.putString(MediaMetadata.KEY_TITLE, title);
-    movieMetadata.putString(MediaMetadata.KEY_STUDIO, studio);
-    movieMetadata.addImage(new WebImage(Uri.parse(imgUrl)));
-    movieMetadata.addImage(new WebImage(Uri.parse(bigImageUrl)));
+    if (null == videoUrl) {
+      return;
+    }
+    String imageurl = getThumbPrefix() + image;
+    String bigImageurl = getThumbPrefix() + bigImage;
+    result.add(title, subTitle, studio, videoUrl, getMediaType(), imageurl, bigImageurl);
+  }
 
-    return new MediaInfo.Builder(url).setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
-        .setContentType(getMediaType())
-        .setMetadata(movieMetadata)
-        .build();
+  private static String readFirstSource(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    String first = null;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (null == first) {
+        first = nextString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endArray();
+    return first;
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
   }
 
   private static String getMediaType() {
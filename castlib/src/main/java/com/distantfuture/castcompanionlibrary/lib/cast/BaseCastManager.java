@@ -2,11 +2,8 @@
 package com.distantfuture.castcompanionlibrary.lib.cast;
 
 import android.app.Activity;
-import android.app.ProgressDialog;
 import android.content.Context;
-import android.content.DialogInterface;
 import android.media.RemoteControlClient;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -25,6 +22,7 @@ import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.CastException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.NoConnectionException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.OnFailedListener;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetworkDisconnectionException;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastSettings;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.google.android.gms.cast.ApplicationMetadata;
 import com.google.android.gms.cast.Cast;
@@ -40,7 +38,6 @@ import com.google.android.gms.common.api.Status;
 
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -59,6 +56,8 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
   public static final String PREFS_KEY_APPLICATION_ID = "application-id";
   public static final String PREFS_KEY_VOLUME_INCREMENT = "volume-increment";
   public static final String PREFS_KEY_ROUTE_ID = "route-id";
+  public static final String PREFS_KEY_TERMINATION_POLICY = "termination_policy";
+  public static final String PREFS_KEY_SESSION_HISTORY = "session-history";
 
   public static final int NO_STATUS_CODE = -1;
 
@@ -66,6 +65,8 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
   private static final int SESSION_RECOVERY_TIMEOUT = 5; // in seconds
 
   protected Context mContext;
+  protected final CastSettings mSettings;
+  protected final SessionHistory mSessionHistory;
   protected MediaRouter mMediaRouter;
   protected MediaRouteSelector mMediaRouteSelector;
   protected CastMediaRouterCallback mMediaRouterCallback;
@@ -79,10 +80,11 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
   protected int mVisibilityCounter;
   protected boolean mUiVisible;
   protected GoogleApiClient mApiClient;
-  protected AsyncTask<Void, Integer, Integer> mReconnectionTask;
+  private final SessionRecovery mSessionRecovery = new SessionRecovery(this);
   protected int mCapabilities;
   protected boolean mConnectionSuspened;
   private boolean mWifiConnectivity = true;
+  private int mDiscoveryFlags = -1;
   protected static BaseCastManager sCastManager;
 
   /*************************************************************************/
@@ -135,7 +137,9 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
     mContext = context;
     mHandler = new Handler(Looper.getMainLooper());
     mApplicationId = applicationId;
-    CastUtils.saveStringToPreference(mContext, PREFS_KEY_APPLICATION_ID, applicationId);
+    mSettings = CastSettings.getInstance(context);
+    mSettings.setApplicationId(applicationId);
+    mSessionHistory = new SessionHistory(mSettings);
 
     CastUtils.LOGD(TAG, "Application ID is: " + mApplicationId);
     mMediaRouter = MediaRouter.getInstance(context);
@@ -143,7 +147,7 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
         .categoryForCast(mApplicationId)).build();
 
     mMediaRouterCallback = new CastMediaRouterCallback(this, context);
-    mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN);
+    updateDiscovery();
   }
 
   public void onWifiConnectivityChanged(boolean connected) {
@@ -186,8 +190,10 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
 
     if (mSelectedCastDevice == null) {
       if (!mConnectionSuspened) {
-        CastUtils.saveStringToPreference(mContext, PREFS_KEY_SESSION_ID, null);
-        CastUtils.saveStringToPreference(mContext, PREFS_KEY_ROUTE_ID, null);
+        // the user left this session, so it should not be recovered on this route later
+        mSessionHistory.remove(mSettings.getRouteId());
+        mSettings.setSessionId(null);
+        mSettings.setRouteId(null);
       }
       mConnectionSuspened = false;
       try {
@@ -306,17 +312,28 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
    * This is called when UI visibility of the client has changed
    */
   protected void onUiVisibilityChanged(boolean visible) {
-    if (visible) {
-      if (null != mMediaRouter && null != mMediaRouterCallback) {
-        CastUtils.LOGD(TAG, "onUiVisibilityChanged() addCallback called");
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN);
-      }
-    } else {
-      if (null != mMediaRouter) {
-        CastUtils.LOGD(TAG, "onUiVisibilityChanged() removeCallback called");
-        mMediaRouter.removeCallback(mMediaRouterCallback);
-      }
+    updateDiscovery();
+  }
+
+  /*
+   * Scans actively for devices only while some UI, and with it the cast button, is visible or while
+   * a previous session is being recovered. Otherwise the callback stays registered with a passive
+   * scan, so that route changes are still reported without keeping discovery running on the
+   * network. The route chooser dialog runs its own active scan while it is shown.
+   */
+  void updateDiscovery() {
+    if (null == mMediaRouter || null == mMediaRouterCallback) {
+      return;
     }
+    boolean active = mUiVisible || mSessionRecovery.isActive();
+    int flags = active ? MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN : 0;
+    if (flags == mDiscoveryFlags) {
+      return;
+    }
+    mDiscoveryFlags = flags;
+    CastUtils.LOGD(TAG, "updateDiscovery(): switching to " + (active ? "active" : "passive") + " scan");
+    // registering the callback again only updates its flags
+    mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, flags);
   }
 
   /*************************************************************************/
@@ -483,49 +500,88 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
    * route ID from the last successful launch.
    */
   public final boolean canConsiderSessionRecovery() {
-    String sessionId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_SESSION_ID);
-    String routeId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_ROUTE_ID);
-    if (null == sessionId || null == routeId) {
-      return false;
+    String sessionId = mSettings.getSessionId();
+    String routeId = mSettings.getRouteId();
+    if (null != sessionId && null != routeId) {
+      CastUtils.LOGD(TAG, "Found session info in the preferences, so proceed with an " + "attempt to reconnect if possible");
+      return true;
+    }
+    if (null != mSessionHistory.getMostRecent(mApplicationId)) {
+      CastUtils.LOGD(TAG, "Found earlier sessions in the history, so proceed with an attempt to reconnect if possible");
+      return true;
     }
-    CastUtils.LOGD(TAG, "Found session info in the preferences, so proceed with an " + "attempt to reconnect if possible");
-    return true;
+    return false;
   }
 
-  private void reconnectSessionIfPossibleInternal(RouteInfo theRoute) {
-    if (isConnected()) {
-      return;
-    }
-    String sessionId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_SESSION_ID);
-    String routeId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_ROUTE_ID);
-    CastUtils.LOGD(TAG, "reconnectSessionIfPossible() Retrieved from preferences: " + "sessionId=" + sessionId + ", routeId=" + routeId);
-    if (null == sessionId || null == routeId) {
-      return;
-    }
-    mReconnectionStatus = ReconnectionStatus.IN_PROGRESS;
-    CastDevice device = CastDevice.getFromBundle(theRoute.getExtras());
+  /**
+   * Returns the sessions that this application recently had on cast devices, which session
+   * recovery draws on.
+   */
+  public SessionHistory getSessionHistory() {
+    return mSessionHistory;
+  }
 
-    if (null != device) {
-      CastUtils.LOGD(TAG, "trying to acquire Cast Client for " + device);
-      onDeviceSelected(device);
-    }
+  /*
+   * Called by subclasses once a session has been launched or joined, to remember it for session
+   * recovery.
+   */
+  void onSessionStarted(String sessionId) {
+    mSettings.setSessionId(sessionId);
+    mSessionHistory.onSessionStarted(mSettings.getRouteId(), sessionId, mApplicationId);
   }
 
   /*
-   * Cancels the task responsible for recovery of prior sessions, is used internally.
+   * Called by the router callback when a route is discovered, in case it is the one of a session
+   * being recovered.
    */
-  void cancelReconnectionTask() {
-    CastUtils.LOGD(TAG, "cancelling reconnection task");
-    if (null != mReconnectionTask && !mReconnectionTask.isCancelled()) {
-      mReconnectionTask.cancel(true);
+  void onRouteAdded(RouteInfo route) {
+    mSessionRecovery.onRouteAdded(route);
+  }
+
+  /*
+   * Called once the route of a recovered session is selected again.
+   */
+  void onSessionRecovered() {
+    mSessionRecovery.onRecovered();
+  }
+
+  /*
+   * Called by subclasses when an attempt to recover a session failed. Transient failures are
+   * retried until the recovery times out.
+   */
+  void onSessionRecoveryFailed(boolean isTransient) {
+    mSessionRecovery.onAttemptFailed(isTransient);
+  }
+
+  /*
+   * Joins the persisted session again on the current connection, after a failed attempt.
+   */
+  void rejoinApplication() {
+    try {
+      launchApp();
+    } catch (TransientNetworkDisconnectionException e) {
+      CastUtils.LOGE(TAG, "Failed to join the session due to network issues", e);
+      onSessionRecoveryFailed(true);
+    } catch (NoConnectionException e) {
+      CastUtils.LOGE(TAG, "Failed to join the session due to network issues", e);
+      onSessionRecoveryFailed(true);
     }
   }
 
+  /**
+   * Returns a human readable summary of how past session recoveries ended and how long the
+   * successful ones took.
+   */
+  public String dumpReconnectionMetrics() {
+    return mSessionRecovery.dumpMetrics();
+  }
+
   /**
    * This method tries to automatically re-establish connection to a session if
    * <ul>
    * <li>User had not done a manual disconnect in the last session
-   * <li>The Cast Device that user had connected to previously is still running the same session
+   * <li>A Cast Device that user had recently connected to is still running the same session; if
+   * several are, the one used last is preferred
    * </ul>
    * Under these conditions, a best-effort attempt will be made to continue with the same session.
    * This attempt will go on for <code>timeoutInSeconds</code> seconds. During this period, an
@@ -537,134 +593,8 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
     if (isConnected()) {
       return;
     }
-    String routeId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_ROUTE_ID);
     if (canConsiderSessionRecovery()) {
-      List<RouteInfo> routes = mMediaRouter.getRoutes();
-      RouteInfo theRoute = null;
-      if (null != routes && !routes.isEmpty()) {
-        for (RouteInfo route : routes) {
-          if (route.getId().equals(routeId)) {
-            theRoute = route;
-            break;
-          }
-        }
-      }
-      if (null != theRoute) {
-        // route has already been discovered, so lets just get the
-        // device, etc
-        reconnectSessionIfPossibleInternal(theRoute);
-      } else {
-        // we set a flag so if the route is discovered within a short
-        // period, we let onRouteAdded callback of
-        // CastMediaRouterCallback take
-        // care of that
-        mReconnectionStatus = ReconnectionStatus.STARTED;
-      }
-
-      // we may need to reconnect to an existing session
-      mReconnectionTask = new AsyncTask<Void, Integer, Integer>() {
-        private ProgressDialog dlg;
-        private final int SUCCESS = 1;
-        private final int FAILED = 2;
-
-        @Override
-        protected void onCancelled() {
-          if (null != dlg) {
-            dlg.dismiss();
-          }
-          super.onCancelled();
-        }
-
-        @Override
-        protected void onPreExecute() {
-          if (!showDialog) {
-            return;
-          }
-          dlg = new ProgressDialog(context);
-          dlg.setMessage(context.getString(R.string.session_reconnection_attempt));
-          dlg.setIndeterminate(true);
-          dlg.setCancelable(true);
-          dlg.setOnCancelListener(new DialogInterface.OnCancelListener() {
-
-            @Override
-            public void onCancel(DialogInterface dialog) {
-              switch (mReconnectionStatus) {
-                case STARTED:
-                case IN_PROGRESS:
-                case FINALIZE:
-                  mReconnectionStatus = ReconnectionStatus.INACTIVE;
-                  onDeviceSelected(null);
-                  break;
-                default:
-                  break;
-              }
-              mReconnectionStatus = ReconnectionStatus.INACTIVE;
-              if (null != dlg) {
-                dlg.dismiss();
-              }
-              mReconnectionTask.cancel(true);
-            }
-          });
-          dlg.setButton(ProgressDialog.BUTTON_NEGATIVE, "Cancel", new DialogInterface.OnClickListener() {
-
-            @Override
-            public void onClick(DialogInterface dialog, int which) {
-              switch (mReconnectionStatus) {
-                case STARTED:
-                case IN_PROGRESS:
-                case FINALIZE:
-                  mReconnectionStatus = ReconnectionStatus.INACTIVE;
-                  onDeviceSelected(null);
-                  break;
-                default:
-                  break;
-              }
-              mReconnectionStatus = ReconnectionStatus.INACTIVE;
-              if (null != dlg) {
-                dlg.cancel();
-              }
-              mReconnectionTask.cancel(true);
-            }
-          });
-          dlg.show();
-        }
-
-        @Override
-        protected Integer doInBackground(Void... params) {
-          for (int i = 0; i < timeoutInSeconds; i++) {
-            if (mReconnectionTask.isCancelled()) {
-              if (null != dlg) {
-                dlg.dismiss();
-              }
-              return SUCCESS;
-            }
-            try {
-              if (isConnected()) {
-                cancel(true);
-              }
-              Thread.sleep(1000);
-            } catch (Exception e) {
-              // ignore
-            }
-          }
-          return FAILED;
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-          if (showDialog && null != dlg) {
-            dlg.dismiss();
-          }
-          if (null != result) {
-            if (result == FAILED) {
-              mReconnectionStatus = ReconnectionStatus.INACTIVE;
-              onDeviceSelected(null);
-            }
-          }
-        }
-
-      };
-      mReconnectionTask.execute();
+      mSessionRecovery.start(context, showDialog, timeoutInSeconds);
     }
   }
 
@@ -672,7 +602,8 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
    * This method tries to automatically re-establish re-establish connection to a session if
    * <ul>
    * <li>User had not done a manual disconnect in the last session
-   * <li>Device that user had connected to previously is still running the same session
+   * <li>A Cast Device that user had recently connected to is still running the same session; if
+   * several are, the one used last is preferred
    * </ul>
    * Under these conditions, a best-effort attempt will be made to continue with the same session.
    * This attempt will go on for 5 seconds. During this period, an optional dialog can be shown if
@@ -715,7 +646,7 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
     }
     if (!isConnected()) {
       if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
-        mReconnectionStatus = ReconnectionStatus.INACTIVE;
+        onSessionRecoveryFailed(true);
       }
       return;
     }
@@ -772,6 +703,10 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
   public void onConnectionFailed(ConnectionResult result) {
     CastUtils.LOGD(TAG, "onConnectionFailed() reached, error code: " + result.getErrorCode() + ", reason: " + result
         .toString());
+    if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
+      // the route is about to be unselected, which forgets the session, so there is nothing to retry
+      onSessionRecoveryFailed(false);
+    }
     mSelectedCastDevice = null;
     if (null != mMediaRouter) {
       mMediaRouter.selectRoute(mMediaRouter.getDefaultRoute());
@@ -812,7 +747,7 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
     CastUtils.LOGD(TAG, "launchApp() is called");
     if (!isConnected()) {
       if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
-        mReconnectionStatus = ReconnectionStatus.INACTIVE;
+        onSessionRecoveryFailed(true);
         return;
       }
       checkConnectivity();
@@ -820,7 +755,7 @@ public abstract class BaseCastManager implements DeviceSelectionListener, Connec
 
     if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
       CastUtils.LOGD(TAG, "Attempting to join a previously interrupted session...");
-      String sessionId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_SESSION_ID);
+      String sessionId = mSettings.getSessionId();
       CastUtils.LOGD(TAG, "joinApplication() -> start");
       Cast.CastApi.joinApplication(mApiClient, mApplicationId, sessionId)
           .setResultCallback(new ResultCallback<Cast.ApplicationConnectionResult>() {
@@ -6,7 +6,7 @@ import android.content.Context;
 import android.support.v7.media.MediaRouter;
 import android.support.v7.media.MediaRouter.RouteInfo;
 
-import com.distantfuture.castcompanionlibrary.lib.cast.BaseCastManager.ReconnectionStatus;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastSettings;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.google.android.gms.cast.CastDevice;
 
@@ -34,11 +34,10 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
     CastUtils.LOGD(TAG, "onRouteSelected: info=" + info);
     if (BaseCastManager.getCastManager()
         .getReconnectionStatus() == BaseCastManager.ReconnectionStatus.FINALIZE) {
-      BaseCastManager.getCastManager().setReconnectionStatus(ReconnectionStatus.INACTIVE);
-      BaseCastManager.getCastManager().cancelReconnectionTask();
+      BaseCastManager.getCastManager().onSessionRecovered();
       return;
     }
-    CastUtils.saveStringToPreference(mContext, BaseCastManager.PREFS_KEY_ROUTE_ID, info.getId());
+    CastSettings.getInstance(mContext).setRouteId(info.getId());
     CastDevice device = CastDevice.getFromBundle(info.getExtras());
     selectDeviceInterface.onDeviceSelected(device);
     CastUtils.LOGD(TAG, "onResult: mSelectedDevice=" + device.getFriendlyName());
@@ -56,18 +55,8 @@ public class CastMediaRouterCallback extends MediaRouter.Callback {
     if (!router.getDefaultRoute().equals(route)) {
       selectDeviceInterface.onCastDeviceDetected(route);
     }
-    if (BaseCastManager.getCastManager().getReconnectionStatus() == ReconnectionStatus.STARTED) {
-      String routeId = CastUtils.getStringFromPreference(mContext, BaseCastManager.PREFS_KEY_ROUTE_ID);
-      if (route.getId().equals(routeId)) {
-        // we found the route, so lets go with that
-        CastUtils.LOGD(TAG, "onRouteAdded: Attempting to recover a session with info=" + route);
-        BaseCastManager.getCastManager().setReconnectionStatus(ReconnectionStatus.IN_PROGRESS);
-
-        CastDevice device = CastDevice.getFromBundle(route.getExtras());
-        CastUtils.LOGD(TAG, "onRouteAdded: Attempting to recover a session with device: " + device.getFriendlyName());
-        selectDeviceInterface.onDeviceSelected(device);
-      }
-    }
+    // this may be the route of a session that is being recovered
+    BaseCastManager.getCastManager().onRouteAdded(route);
   }
 
 }
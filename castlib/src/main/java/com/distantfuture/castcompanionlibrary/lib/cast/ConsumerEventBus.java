@@ -0,0 +1,346 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers cast events to a set of consumers. Subscribers are kept in a copy-on-write list, so a
+ * consumer can be added or removed at any time, including from inside a callback, and every post
+ * iterates over a stable snapshot.
+ * <p/>
+ * Each consumer chooses how it is called through a {@link DeliveryPolicy}, so that a slow consumer
+ * only delays itself: background consumers have their own serial queue, and coalesced consumers
+ * only see the latest event of each kind per frame, flushed from a {@link Choreographer} frame
+ * callback so that the status updates arriving between two frames collapse into one. A consumer
+ * that throws is logged and skipped, as before.
+ * <p/>
+ * The bus also keeps per-event dispatch metrics: how many times an event was delivered, and the
+ * average and worst latency between posting it and a consumer returning from its callback. See
+ * {@link #dumpMetrics()}.
+ */
+public class ConsumerEventBus<T> {
+
+  private static final String TAG = CastUtils.makeLogTag(ConsumerEventBus.class);
+  private static final long SLOW_CONSUMER_NANOS = 16 * 1000 * 1000;
+  private static final int BACKGROUND_THREADS = 2;
+
+  private static final ThreadPoolExecutor sBackgroundExecutor;
+
+  static {
+    sBackgroundExecutor = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 30,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "CastConsumer #" + mCount.incrementAndGet());
+      }
+    });
+    sBackgroundExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * How a consumer receives events.
+   */
+  public enum DeliveryPolicy {
+    /**
+     * On the thread that posted the event, before {@link #post(Event)} returns.
+     */
+    IMMEDIATE,
+    /**
+     * On the main thread: inline when the event is posted from the main thread, otherwise posted
+     * to it.
+     */
+    MAIN_THREAD,
+    /**
+     * On a shared background pool, in order, one event at a time for this consumer.
+     */
+    BACKGROUND,
+    /**
+     * On the main thread, at most once per display frame for each kind of event; events that are
+     * superseded before the next frame are dropped.
+     */
+    COALESCED
+  }
+
+  /**
+   * One event to be delivered to every consumer. Events that carry a coalescing key replace a
+   * pending event with the same key for {@link DeliveryPolicy#COALESCED} consumers.
+   */
+  public abstract static class Event<T> {
+    private final String mName;
+    private final String mCoalesceKey;
+    private long mPostedAt;
+
+    protected Event(String name) {
+      this(name, false);
+    }
+
+    protected Event(String name, boolean coalesce) {
+      mName = name;
+      mCoalesceKey = coalesce ? name : null;
+    }
+
+    public String getName() {
+      return mName;
+    }
+
+    protected abstract void deliver(T consumer) throws Exception;
+  }
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final CopyOnWriteArrayList<Subscriber> mSubscribers =
+      new CopyOnWriteArrayList<Subscriber>();
+  private final ConcurrentHashMap<String, Metrics> mMetrics =
+      new ConcurrentHashMap<String, Metrics>();
+
+  /**
+   * Adds <code>consumer</code>, or changes its delivery policy if it is already registered.
+   * Returns <code>true</code> if it was not registered before.
+   */
+  public synchronized boolean register(T consumer, DeliveryPolicy policy) {
+    boolean added = unregister(consumer) == null;
+    mSubscribers.add(new Subscriber(consumer, policy));
+    return added;
+  }
+
+  /**
+   * Removes <code>consumer</code>. Events already queued for it are not delivered.
+   */
+  public synchronized boolean remove(T consumer) {
+    return unregister(consumer) != null;
+  }
+
+  public boolean isEmpty() {
+    return mSubscribers.isEmpty();
+  }
+
+  public int size() {
+    return mSubscribers.size();
+  }
+
+  /**
+   * Returns a snapshot of the registered consumers.
+   */
+  public List<T> getConsumers() {
+    List<T> consumers = new ArrayList<T>(mSubscribers.size());
+    for (Subscriber subscriber : mSubscribers) {
+      consumers.add(subscriber.mConsumer);
+    }
+    return consumers;
+  }
+
+  /**
+   * Delivers <code>event</code> to every consumer according to its delivery policy.
+   */
+  public void post(Event<T> event) {
+    event.mPostedAt = System.nanoTime();
+    boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+    for (Subscriber subscriber : mSubscribers) {
+      switch (subscriber.mPolicy) {
+        case IMMEDIATE:
+          subscriber.deliver(event);
+          break;
+        case MAIN_THREAD:
+          if (onMainThread) {
+            subscriber.deliver(event);
+          } else {
+            subscriber.postToMain(event);
+          }
+          break;
+        case BACKGROUND:
+          subscriber.enqueue(event);
+          break;
+        case COALESCED:
+          subscriber.coalesce(event);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Returns a human readable summary of the dispatch metrics collected so far, one event per line.
+   */
+  public String dumpMetrics() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Metrics> entry : mMetrics.entrySet()) {
+      sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  public void resetMetrics() {
+    mMetrics.clear();
+  }
+
+  private Subscriber unregister(T consumer) {
+    for (Subscriber subscriber : mSubscribers) {
+      if (subscriber.mConsumer.equals(consumer)) {
+        subscriber.mActive = false;
+        mSubscribers.remove(subscriber);
+        return subscriber;
+      }
+    }
+    return null;
+  }
+
+  private void record(Event<T> event, long deliveredAt) {
+    Metrics metrics = mMetrics.get(event.mName);
+    if (null == metrics) {
+      Metrics created = new Metrics();
+      metrics = mMetrics.putIfAbsent(event.mName, created);
+      if (null == metrics) {
+        metrics = created;
+      }
+    }
+    metrics.add(deliveredAt - event.mPostedAt);
+  }
+
+  private class Subscriber {
+    private final T mConsumer;
+    private final DeliveryPolicy mPolicy;
+    private final ArrayDeque<Event<T>> mQueue = new ArrayDeque<Event<T>>();
+    // pending events in posting order; an unkeyed event is its own key, so it is never replaced
+    private final Map<Object, Event<T>> mPending = new LinkedHashMap<Object, Event<T>>();
+    private volatile boolean mActive = true;
+    private boolean mDraining;
+    private boolean mFlushScheduled;
+
+    private final Choreographer.FrameCallback mFlush = new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        List<Event<T>> events;
+        synchronized (mPending) {
+          events = new ArrayList<Event<T>>(mPending.values());
+          mPending.clear();
+          mFlushScheduled = false;
+        }
+        for (Event<T> event : events) {
+          deliver(event);
+        }
+      }
+    };
+
+    // the Choreographer of the main thread can only be had on the main thread
+    private final Runnable mScheduleFlush = new Runnable() {
+      @Override
+      public void run() {
+        Choreographer.getInstance().postFrameCallback(mFlush);
+      }
+    };
+
+    Subscriber(T consumer, DeliveryPolicy policy) {
+      mConsumer = consumer;
+      mPolicy = policy;
+    }
+
+    void deliver(Event<T> event) {
+      if (!mActive) {
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        event.deliver(mConsumer);
+      } catch (Exception e) {
+        CastUtils.LOGE(TAG, event.mName + "(): Failed to inform " + mConsumer, e);
+      }
+      long end = System.nanoTime();
+      if (end - start > SLOW_CONSUMER_NANOS) {
+        CastUtils.LOGD(TAG, mConsumer + " took " + ((end - start) / 1000000) + "ms to handle " +
+            event.mName);
+      }
+      record(event, end);
+    }
+
+    void postToMain(final Event<T> event) {
+      mHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          deliver(event);
+        }
+      });
+    }
+
+    void enqueue(Event<T> event) {
+      synchronized (mQueue) {
+        mQueue.addLast(event);
+        if (mDraining) {
+          return;
+        }
+        mDraining = true;
+      }
+      sBackgroundExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            Event<T> next;
+            synchronized (mQueue) {
+              next = mQueue.pollFirst();
+              if (null == next) {
+                mDraining = false;
+                return;
+              }
+            }
+            deliver(next);
+          }
+        }
+      });
+    }
+
+    void coalesce(Event<T> event) {
+      synchronized (mPending) {
+        if (null == event.mCoalesceKey) {
+          mPending.put(event, event);
+        } else {
+          // the earlier event of the same kind is dropped and the new one takes the last place, so
+          // it is still delivered after anything that was posted before it
+          mPending.remove(event.mCoalesceKey);
+          mPending.put(event.mCoalesceKey, event);
+        }
+        if (mFlushScheduled) {
+          return;
+        }
+        mFlushScheduled = true;
+      }
+      if (Looper.myLooper() == Looper.getMainLooper()) {
+        mScheduleFlush.run();
+      } else {
+        mHandler.post(mScheduleFlush);
+      }
+    }
+  }
+
+  private static class Metrics {
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    synchronized void add(long latency) {
+      mCount++;
+      mTotalNanos += latency;
+      mMaxNanos = Math.max(mMaxNanos, latency);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return mCount + " deliveries, avg " + (mTotalNanos / Math.max(1, mCount) / 1000) + "us, max " +
+          (mMaxNanos / 1000) + "us";
+    }
+  }
+}
@@ -17,12 +17,16 @@ import com.google.android.gms.cast.Cast.CastOptions.Builder;
 import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Status;
 
+import org.json.JSONObject;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -60,6 +64,8 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
   private static final String TAG = CastUtils.makeLogTag(DataCastManager.class);
   private static DataCastManager sInstance;
   private final Set<String> mNamespaceList = new HashSet<String>();
+  private final Map<String, DataChannelSender> mSenders = new HashMap<String, DataChannelSender>();
+  private final Map<String, DataChannelRpc> mRpcs = new HashMap<String, DataChannelRpc>();
   protected Set<IDataCastConsumer> mDataConsumers;
 
   /**
@@ -203,7 +209,8 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
 
   /**
    * Sends the <code>message</code> on the data channel for the <code>namespace</code>. If fails,
-   * it will call <code>onMessageSendFailed</code>
+   * it will call <code>onMessageSendFailed</code>. The message is queued and sent in order with the
+   * other messages for the same namespace, see {@link DataChannelSender}.
    *
    * @param message
    * @param namespace
@@ -216,20 +223,76 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
    * @throws IOException
    */
   public void sendDataMessage(String message, String namespace) throws IllegalArgumentException, IllegalStateException, IOException, TransientNetworkDisconnectionException, NoConnectionException {
+    sendDataMessage(message, namespace, null);
+  }
+
+  /**
+   * Queues the <code>message</code> for the data channel of the <code>namespace</code>, like
+   * {@link #sendDataMessage(String, String)}. If a message with the same
+   * <code>coalescingKey</code> is still waiting to be sent on that namespace, it is replaced by
+   * this one.
+   *
+   * @throws NoConnectionException                  If no connectivity to the device exists
+   * @throws TransientNetworkDisconnectionException If framework is still trying to recover from a
+   *                                                possibly transient loss of network
+   * @throws IllegalArgumentException               If the the message is null or empty, or if the
+   *                                                namespace is null or empty.
+   */
+  public void sendDataMessage(String message, String namespace, String coalescingKey) throws IllegalArgumentException, TransientNetworkDisconnectionException, NoConnectionException {
     checkConnectivity();
     if (TextUtils.isEmpty(namespace)) {
       throw new IllegalArgumentException("namespace cannot be empty");
     }
-    Cast.CastApi.sendMessage(mApiClient, namespace, message).
-        setResultCallback(new ResultCallback<Status>() {
+    getDataChannelSender(namespace).send(message, coalescingKey);
+  }
 
-          @Override
-          public void onResult(Status result) {
-            if (!result.isSuccess()) {
-              DataCastManager.this.onMessageSendFailed(result);
-            }
-          }
-        });
+  /**
+   * Encodes the <code>message</code> with the codec of the <code>namespace</code> and queues it
+   * for the data channel of that namespace, like {@link #sendDataMessage(String, String, String)}.
+   *
+   * @throws NoConnectionException                  If no connectivity to the device exists
+   * @throws TransientNetworkDisconnectionException If framework is still trying to recover from a
+   *                                                possibly transient loss of network
+   * @throws IllegalArgumentException               If the namespace is null or empty, or if the
+   *                                                message cannot be encoded.
+   */
+  public void sendDataMessage(JSONObject message, String namespace, String coalescingKey) throws IllegalArgumentException, TransientNetworkDisconnectionException, NoConnectionException {
+    checkConnectivity();
+    if (TextUtils.isEmpty(namespace)) {
+      throw new IllegalArgumentException("namespace cannot be empty");
+    }
+    getDataChannelSender(namespace).send(message, coalescingKey);
+  }
+
+  /**
+   * Returns the outbound queue of the <code>namespace</code>, to tune how it batches messages and
+   * handles overload, to set the codec of its messages, or to read its metrics.
+   */
+  public synchronized DataChannelSender getDataChannelSender(String namespace) {
+    DataChannelSender sender = mSenders.get(namespace);
+    if (null == sender) {
+      sender = new DataChannelSender(this, namespace, new DataChannelSender.OnSendFailedListener() {
+        @Override
+        public void onSendFailed(Status status) {
+          onMessageSendFailed(status);
+        }
+      });
+      mSenders.put(namespace, sender);
+    }
+    return sender;
+  }
+
+  /**
+   * Returns the request/reply layer of the <code>namespace</code>, which matches the replies of the
+   * receiver to requests by their <code>requestId</code>.
+   */
+  public synchronized DataChannelRpc getDataChannelRpc(String namespace) {
+    DataChannelRpc rpc = mRpcs.get(namespace);
+    if (null == rpc) {
+      rpc = new DataChannelRpc(getDataChannelSender(namespace));
+      mRpcs.put(namespace, rpc);
+    }
+    return rpc;
   }
 
   /*************************************************************************/
@@ -247,6 +310,29 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
     } catch (TransientNetworkDisconnectionException e) {
       CastUtils.LOGE(TAG, "Failed to detach data channels", e);
     }
+    for (DataChannelSender sender : getDataChannelSenders()) {
+      sender.clear();
+    }
+    for (DataChannelRpc rpc : getDataChannelRpcs()) {
+      rpc.cancelAll();
+    }
+  }
+
+  @Override
+  public void onConnectivityRecovered() {
+    super.onConnectivityRecovered();
+    // send what was queued while the connection was suspended
+    for (DataChannelSender sender : getDataChannelSenders()) {
+      sender.drain();
+    }
+  }
+
+  private synchronized List<DataChannelSender> getDataChannelSenders() {
+    return new ArrayList<DataChannelSender>(mSenders.values());
+  }
+
+  private synchronized List<DataChannelRpc> getDataChannelRpcs() {
+    return new ArrayList<DataChannelRpc>(mRpcs.values());
   }
 
   @Override
@@ -295,15 +381,13 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
   public void onApplicationConnected(ApplicationMetadata appMetadata, String applicationStatus, String sessionId, boolean wasLaunched) {
     CastUtils.LOGD(TAG, "onApplicationConnected() reached with sessionId: " + sessionId);
 
-    // saving session for future retrieval; we only save the last session
-    // info
-    CastUtils.saveStringToPreference(mContext, PREFS_KEY_SESSION_ID, sessionId);
+    onSessionStarted(sessionId);
     if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
       // we have tried to reconnect and successfully launched the app, so
       // it is time to select the route and make the cast icon happy :-)
       List<RouteInfo> routes = mMediaRouter.getRoutes();
       if (null != routes) {
-        String routeId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_ROUTE_ID);
+        String routeId = mSettings.getRouteId();
         boolean found = false;
         for (RouteInfo routeInfo : routes) {
           if (routeId.equals(routeInfo.getId())) {
@@ -318,8 +402,7 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
         if (!found) {
           // we were hoping to have the route that we wanted, but we
           // didn't so we deselect the device
-          onDeviceSelected(null);
-          mReconnectionStatus = ReconnectionStatus.INACTIVE;
+          onSessionRecoveryFailed(false);
           // uncomment the following if you want to clear session
           // persisted data if a reconnection attempt fails
           // Utils.saveStringToPreference(mContext,
@@ -393,7 +476,11 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
 
   @Override
   public void onApplicationConnectionFailed(int errorCode) {
-    onDeviceSelected(null);
+    if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
+      onSessionRecoveryFailed(false);
+    } else {
+      onDeviceSelected(null);
+    }
     for (IDataCastConsumer consumer : mDataConsumers) {
       try {
         consumer.onApplicationConnectionFailed(errorCode);
@@ -465,6 +552,13 @@ public class DataCastManager extends BaseCastManager implements Cast.MessageRece
 
   @Override
   public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
+    DataChannelRpc rpc;
+    synchronized (this) {
+      rpc = mRpcs.get(namespace);
+    }
+    if (null != rpc && rpc.onMessageReceived(message)) {
+      return;
+    }
     for (IDataCastConsumer consumer : mDataConsumers) {
       try {
         consumer.onMessageReceived(castDevice, namespace, message);
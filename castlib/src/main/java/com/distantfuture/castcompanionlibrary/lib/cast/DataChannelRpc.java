@@ -0,0 +1,216 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.IRpcCallback;
+import com.distantfuture.castcompanionlibrary.lib.cast.codec.JsonCodec;
+import com.distantfuture.castcompanionlibrary.lib.cast.codec.MessageCodec;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+import com.distantfuture.castcompanionlibrary.lib.utils.UiTaskScheduler;
+import com.google.android.gms.cast.CastStatusCodes;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests and replies over a custom namespace. Every request is a JSON object that gets a unique
+ * <code>requestId</code>, and the receiver is expected to reply with a JSON object carrying the same
+ * <code>requestId</code>, as the media namespace does. Both are encoded with the codec of the
+ * namespace's {@link DataChannelSender}. Replies are matched to their requests and handed to the
+ * {@link IRpcCallback} of the request, together with the measured round trip time; incoming
+ * messages that do not answer an outstanding request go to the consumers as before.
+ * <p/>
+ * Any number of requests can be outstanding. They are kept in a concurrent map keyed by request id,
+ * and whichever of the reply, the timeout or a cancellation removes a request from the map first
+ * decides its outcome, without further locking. Requests are sent through the
+ * {@link DataChannelSender} of the namespace, so they are subject to its flow control; a request
+ * whose message fails to send or is dropped from the queue fails right away, with the status of
+ * the send.
+ */
+public class DataChannelRpc {
+
+  private static final String TAG = CastUtils.makeLogTag(DataChannelRpc.class);
+  public static final String KEY_REQUEST_ID = "requestId";
+  public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+  private static final class PendingRequest {
+    final IRpcCallback mCallback;
+    final long mSentAt;
+    volatile UiTaskScheduler.Token mTimeout;
+
+    PendingRequest(IRpcCallback callback, long sentAt) {
+      mCallback = callback;
+      mSentAt = sentAt;
+    }
+  }
+
+  private final DataChannelSender mSender;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final ConcurrentHashMap<Long, PendingRequest> mPending = new ConcurrentHashMap<Long, PendingRequest>();
+  private final AtomicLong mNextRequestId = new AtomicLong(1);
+
+  private long mCompleted;
+  private long mTimedOut;
+  private long mFailed;
+  private long mTotalRoundTripMs;
+  private long mMaxRoundTripMs;
+
+  DataChannelRpc(DataChannelSender sender) {
+    mSender = sender;
+  }
+
+  /**
+   * Sends <code>request</code> after setting its <code>requestId</code>, and returns that id.
+   * <code>callback</code> is told about the reply, or about the failure if there is no reply within
+   * <code>timeoutMillis</code>. Can be called from any thread.
+   */
+  public long call(JSONObject request, long timeoutMillis, IRpcCallback callback) {
+    if (null == request || null == callback) {
+      throw new IllegalArgumentException("request and callback cannot be null");
+    }
+    final long requestId = mNextRequestId.getAndIncrement();
+    try {
+      request.put(KEY_REQUEST_ID, requestId);
+    } catch (JSONException e) {
+      // cannot happen, the key is not null
+      throw new IllegalStateException(e);
+    }
+    PendingRequest pending = new PendingRequest(callback, SystemClock.elapsedRealtime());
+    mPending.put(requestId, pending);
+    pending.mTimeout = UiTaskScheduler.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        fail(requestId, CastStatusCodes.TIMEOUT);
+      }
+    }, timeoutMillis);
+    boolean queued = mSender.send(request, null, new DataChannelSender.OnMessageFailedListener() {
+      @Override
+      public void onMessageFailed(int statusCode) {
+        fail(requestId, statusCode);
+      }
+    });
+    if (!queued) {
+      fail(requestId, CastStatusCodes.MESSAGE_SEND_BUFFER_TOO_FULL);
+    }
+    return requestId;
+  }
+
+  public long call(JSONObject request, IRpcCallback callback) {
+    return call(request, DEFAULT_TIMEOUT_MS, callback);
+  }
+
+  /**
+   * Gives up on a request; its callback is told that it was cancelled. Returns <code>false</code>
+   * if the request is no longer outstanding.
+   */
+  public boolean cancel(long requestId) {
+    return fail(requestId, CastStatusCodes.CANCELED);
+  }
+
+  /*
+   * Cancels all outstanding requests, for example because the device was disconnected.
+   */
+  void cancelAll() {
+    for (Long requestId : mPending.keySet()) {
+      fail(requestId, CastStatusCodes.CANCELED);
+    }
+  }
+
+  /*
+   * Offers an incoming message of the namespace. Returns true if it was the reply to an outstanding
+   * request and has been delivered to the callback of that request. Runs on the main thread.
+   */
+  boolean onMessageReceived(String message) {
+    if (mPending.isEmpty() || null == message) {
+      return false;
+    }
+    MessageCodec codec = mSender.getCodec();
+    if (codec instanceof JsonCodec && !message.contains(KEY_REQUEST_ID)) {
+      // cheap enough to skip parsing the messages that cannot be replies
+      return false;
+    }
+    JSONObject response;
+    try {
+      response = codec.decode(message);
+    } catch (JSONException e) {
+      return false;
+    }
+    if (!response.has(KEY_REQUEST_ID)) {
+      return false;
+    }
+    PendingRequest pending = mPending.remove(response.optLong(KEY_REQUEST_ID));
+    if (null == pending) {
+      return false;
+    }
+    UiTaskScheduler.Token timeout = pending.mTimeout;
+    if (null != timeout) {
+      timeout.cancel();
+    }
+    long roundTrip = SystemClock.elapsedRealtime() - pending.mSentAt;
+    synchronized (this) {
+      mCompleted++;
+      mTotalRoundTripMs += roundTrip;
+      mMaxRoundTripMs = Math.max(mMaxRoundTripMs, roundTrip);
+    }
+    try {
+      pending.mCallback.onResponse(response, roundTrip);
+    } catch (Exception e) {
+      CastUtils.LOGE(TAG, "onResponse(): Failed to inform " + pending.mCallback, e);
+    }
+    return true;
+  }
+
+  private boolean fail(long requestId, final int statusCode) {
+    final PendingRequest pending = mPending.remove(requestId);
+    if (null == pending) {
+      return false;
+    }
+    UiTaskScheduler.Token timeout = pending.mTimeout;
+    if (null != timeout) {
+      timeout.cancel();
+    }
+    synchronized (this) {
+      if (statusCode == CastStatusCodes.TIMEOUT) {
+        mTimedOut++;
+      } else {
+        mFailed++;
+      }
+    }
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          pending.mCallback.onFailure(statusCode);
+        } catch (Exception e) {
+          CastUtils.LOGE(TAG, "onFailure(): Failed to inform " + pending.mCallback, e);
+        }
+      }
+    });
+    return true;
+  }
+
+  public int getOutstandingCount() {
+    return mPending.size();
+  }
+
+  /**
+   * Returns the average round trip time of the requests that got a reply, in milliseconds.
+   */
+  public synchronized long getAverageRoundTrip() {
+    return mCompleted == 0 ? 0 : mTotalRoundTripMs / mCompleted;
+  }
+
+  /**
+   * Returns a human readable summary of the requests made so far.
+   */
+  public synchronized String dumpMetrics() {
+    return mSender.getNamespace() + ": outstanding " + mPending.size() + ", completed " + mCompleted +
+        ", timed out " + mTimedOut + ", failed " + mFailed + "\nround trip: avg " +
+        getAverageRoundTrip() + "ms, max " + mMaxRoundTripMs + "ms\n";
+  }
+}
@@ -0,0 +1,509 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.distantfuture.castcompanionlibrary.lib.cast.codec.JsonCodec;
+import com.distantfuture.castcompanionlibrary.lib.cast.codec.MessageCodec;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastStatusCodes;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outbound queue of one custom namespace. Messages are queued by {@link #send(String, String)}
+ * from any thread and handed to the Cast API on the main thread, in order, with at most
+ * {@link #setMaxInFlight(int)} sends awaiting their result at any time. While that many are in
+ * flight, new messages wait in the queue, where:
+ * <ul>
+ * <li>a message with the same coalescing key as a queued one replaces it, keeping its place, which
+ * suits state that only matters in its latest version, such as telemetry
+ * <li>up to {@link #setMaxBatchSize(int)} messages are sent together in one envelope of the form
+ * <code>{"batch": ["message", ...]}</code>, which the receiver has to unwrap. Batching is off by
+ * default, so that receivers that do not know about envelopes keep working
+ * <li>once the queue holds {@link #setMaxQueueSize(int)} messages, the {@link OverflowPolicy}
+ * decides what happens to the next one
+ * </ul>
+ * Messages can also be given as JSON objects, which are encoded with the {@link MessageCodec} of the
+ * namespace, JSON text unless {@link #setCodec(MessageCodec)} says otherwise; replies from the
+ * receiver can be decoded with the same codec.
+ * <p/>
+ * Failed sends and rejected messages are reported to the manager that owns the namespace, the same
+ * way failed sends always were. The queue depth, drops and send latencies are kept for
+ * {@link #dumpMetrics()}.
+ */
+public class DataChannelSender {
+
+  private static final String TAG = CastUtils.makeLogTag(DataChannelSender.class);
+  public static final String BATCH_KEY = "batch";
+  public static final int DEFAULT_MAX_QUEUE_SIZE = 64;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+  // the Cast API refuses messages longer than 64K bytes of UTF-8
+  private static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+  private static final long MAX_BLOCK_MS = 1000;
+
+  /**
+   * What happens to a message that arrives when the queue is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * The oldest queued message is dropped to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * The sending thread waits for room, for up to a second, and the message is rejected if there
+     * is still none. The main thread never waits, since it is the one that makes room; there the
+     * message is rejected right away.
+     */
+    BLOCK,
+    /**
+     * The message is rejected.
+     */
+    FAIL
+  }
+
+  /*
+   * Told about sends that failed or were rejected, on the main thread.
+   */
+  interface OnSendFailedListener {
+    void onSendFailed(Status status);
+  }
+
+  /*
+   * Told about a message that will not reach the receiver because its send failed or it was dropped
+   * from the queue, on the main thread.
+   */
+  interface OnMessageFailedListener {
+    void onMessageFailed(int statusCode);
+  }
+
+  private static final class Message {
+    final String mCoalescingKey;
+    final long mQueuedAt;
+    final OnMessageFailedListener mFailedListener;
+    String mPayload;
+
+    Message(String payload, String coalescingKey, long queuedAt,
+        OnMessageFailedListener failedListener) {
+      mPayload = payload;
+      mCoalescingKey = coalescingKey;
+      mQueuedAt = queuedAt;
+      mFailedListener = failedListener;
+    }
+  }
+
+  private final BaseCastManager mCastManager;
+  private final String mNamespace;
+  private final OnSendFailedListener mListener;
+  private final ArrayDeque<Message> mQueue = new ArrayDeque<Message>();
+  private final Map<String, Message> mQueuedByKey = new HashMap<String, Message>();
+  private int mMaxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+  private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private int mMaxBatchSize = 1;
+  private OverflowPolicy mOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+  private volatile MessageCodec mCodec = new JsonCodec();
+  private int mInFlight;
+  private boolean mDrainScheduled;
+
+  private long mSent;
+  private long mBatches;
+  private long mCoalesced;
+  private long mDropped;
+  private long mRejected;
+  private long mFailed;
+  private int mMaxQueueDepth;
+  private long mTotalLatencyMs;
+  private long mMaxLatencyMs;
+
+  private final Runnable mDrainer = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (DataChannelSender.this) {
+        mDrainScheduled = false;
+      }
+      drain();
+    }
+  };
+
+  DataChannelSender(BaseCastManager castManager, String namespace, OnSendFailedListener listener) {
+    mCastManager = castManager;
+    mNamespace = namespace;
+    mListener = listener;
+  }
+
+  public String getNamespace() {
+    return mNamespace;
+  }
+
+  public synchronized void setMaxQueueSize(int maxQueueSize) {
+    if (maxQueueSize < 1) {
+      throw new IllegalArgumentException("maxQueueSize must be positive");
+    }
+    mMaxQueueSize = maxQueueSize;
+  }
+
+  public synchronized void setMaxInFlight(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+    mMaxInFlight = maxInFlight;
+  }
+
+  /**
+   * Sets how many queued messages may be sent together in one envelope. The default, 1, sends
+   * every message on its own and without an envelope.
+   */
+  public synchronized void setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    mMaxBatchSize = maxBatchSize;
+  }
+
+  public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+    if (null == policy) {
+      throw new IllegalArgumentException("policy cannot be null");
+    }
+    mOverflowPolicy = policy;
+  }
+
+  /**
+   * Sets the codec for the messages of this namespace; the receiver has to use the same one.
+   */
+  public void setCodec(MessageCodec codec) {
+    if (null == codec) {
+      throw new IllegalArgumentException("codec cannot be null");
+    }
+    mCodec = codec;
+  }
+
+  public MessageCodec getCodec() {
+    return mCodec;
+  }
+
+  /**
+   * Encodes <code>message</code> with the codec of this namespace and queues it, like
+   * {@link #send(String, String)}.
+   */
+  public boolean send(JSONObject message, String coalescingKey) {
+    return send(mCodec.encode(message), coalescingKey, null);
+  }
+
+  /*
+   * Like send(JSONObject, String), and failedListener is told if the message is queued but never
+   * reaches the receiver. A message that replaces a queued one keeps the listener of that one.
+   */
+  boolean send(JSONObject message, String coalescingKey, OnMessageFailedListener failedListener) {
+    return send(mCodec.encode(message), coalescingKey, failedListener);
+  }
+
+  /**
+   * Queues <code>message</code>. If <code>coalescingKey</code> is not <code>null</code> and a
+   * message with the same key is still queued, that message is replaced instead. Returns
+   * <code>false</code> if the message was rejected because the queue is full; the rejection is
+   * also reported as a failed send.
+   */
+  public boolean send(String message, String coalescingKey) {
+    return send(message, coalescingKey, null);
+  }
+
+  private boolean send(String message, String coalescingKey, OnMessageFailedListener failedListener) {
+    if (null == message || message.length() == 0) {
+      throw new IllegalArgumentException("message cannot be empty");
+    }
+    synchronized (this) {
+      if (coalesce(message, coalescingKey)) {
+        return true;
+      }
+      if (!makeRoom()) {
+        mRejected++;
+        reject();
+        return false;
+      }
+      // makeRoom() may have waited, and another sender may have queued the same key meanwhile
+      if (coalesce(message, coalescingKey)) {
+        return true;
+      }
+      Message queued = new Message(message, coalescingKey, SystemClock.elapsedRealtime(),
+          failedListener);
+      mQueue.add(queued);
+      if (null != coalescingKey) {
+        mQueuedByKey.put(coalescingKey, queued);
+      }
+      mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+      if (!mDrainScheduled) {
+        mDrainScheduled = true;
+        mCastManager.mHandler.post(mDrainer);
+      }
+    }
+    return true;
+  }
+
+  public boolean send(String message) {
+    return send(message, null);
+  }
+
+  /*
+   * Replaces the payload of the queued message with the same key, if there is one.
+   */
+  private boolean coalesce(String message, String coalescingKey) {
+    if (null == coalescingKey) {
+      return false;
+    }
+    Message queued = mQueuedByKey.get(coalescingKey);
+    if (null == queued) {
+      return false;
+    }
+    queued.mPayload = message;
+    mCoalesced++;
+    return true;
+  }
+
+  /*
+   * Applies the overflow policy if the queue is full. Returns false if the message has to be
+   * rejected.
+   */
+  private boolean makeRoom() {
+    if (mQueue.size() < mMaxQueueSize) {
+      return true;
+    }
+    switch (mOverflowPolicy) {
+      case DROP_OLDEST:
+        Message oldest = mQueue.poll();
+        if (null != oldest.mCoalescingKey) {
+          mQueuedByKey.remove(oldest.mCoalescingKey);
+        }
+        mDropped++;
+        postFailed(oldest, CastStatusCodes.MESSAGE_SEND_BUFFER_TOO_FULL);
+        return true;
+      case BLOCK:
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+          return false;
+        }
+        long deadline = SystemClock.elapsedRealtime() + MAX_BLOCK_MS;
+        long remaining = MAX_BLOCK_MS;
+        while (mQueue.size() >= mMaxQueueSize && remaining > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+          remaining = deadline - SystemClock.elapsedRealtime();
+        }
+        return mQueue.size() < mMaxQueueSize;
+      default:
+        return false;
+    }
+  }
+
+  private void postFailed(final Message message, final int statusCode) {
+    if (null == message.mFailedListener) {
+      return;
+    }
+    mCastManager.mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        message.mFailedListener.onMessageFailed(statusCode);
+      }
+    });
+  }
+
+  private void reject() {
+    mCastManager.mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        mListener.onSendFailed(new Status(CastStatusCodes.MESSAGE_SEND_BUFFER_TOO_FULL));
+      }
+    });
+  }
+
+  /*
+   * Hands queued messages to the Cast API until the in-flight limit is reached. Runs on the main
+   * thread. Messages stay queued while there is no connection.
+   */
+  void drain() {
+    while (mCastManager.isConnected()) {
+      List<Message> batch;
+      String payload;
+      synchronized (this) {
+        if (mInFlight >= mMaxInFlight || mQueue.isEmpty()) {
+          return;
+        }
+        batch = takeBatch();
+        payload = batch.size() == 1 ? batch.get(0).mPayload : wrap(batch);
+        if (batch.size() > 1 && utf8Length(payload) > MAX_MESSAGE_LENGTH) {
+          // the escaping made the envelope too long; the messages go one at a time instead
+          for (int i = batch.size() - 1; i > 0; i--) {
+            putBack(batch.remove(i));
+          }
+          payload = batch.get(0).mPayload;
+        }
+        mInFlight++;
+        notifyAll();
+      }
+      try {
+        Cast.CastApi.sendMessage(mCastManager.mApiClient, mNamespace, payload)
+            .setResultCallback(new BatchResultCallback(batch));
+      } catch (IllegalStateException e) {
+        CastUtils.LOGE(TAG, "Failed to send a message on " + mNamespace, e);
+        onBatchDone(batch, new Status(CastStatusCodes.INTERNAL_ERROR));
+      } catch (IllegalArgumentException e) {
+        CastUtils.LOGE(TAG, "Failed to send a message on " + mNamespace, e);
+        onBatchDone(batch, new Status(CastStatusCodes.INVALID_REQUEST));
+      }
+    }
+  }
+
+  /*
+   * Takes the next messages off the queue. Their combined length only bounds the length of the
+   * envelope from below, which drain() checks once it is built.
+   */
+  private List<Message> takeBatch() {
+    List<Message> batch = new ArrayList<Message>();
+    int length = 0;
+    while (!mQueue.isEmpty() && batch.size() < mMaxBatchSize) {
+      Message next = mQueue.peek();
+      length += next.mPayload.length();
+      if (!batch.isEmpty() && length > MAX_MESSAGE_LENGTH) {
+        break;
+      }
+      mQueue.poll();
+      if (null != next.mCoalescingKey) {
+        mQueuedByKey.remove(next.mCoalescingKey);
+      }
+      batch.add(next);
+    }
+    return batch;
+  }
+
+  private void putBack(Message message) {
+    mQueue.addFirst(message);
+    if (null != message.mCoalescingKey) {
+      mQueuedByKey.put(message.mCoalescingKey, message);
+    }
+  }
+
+  private static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800 || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        // each half of a surrogate pair accounts for two of its four bytes
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static String wrap(List<Message> batch) {
+    JSONArray messages = new JSONArray();
+    for (Message message : batch) {
+      messages.put(message.mPayload);
+    }
+    JSONObject envelope = new JSONObject();
+    try {
+      envelope.put(BATCH_KEY, messages);
+    } catch (JSONException e) {
+      // cannot happen, the key is not null
+      throw new IllegalStateException(e);
+    }
+    return envelope.toString();
+  }
+
+  private class BatchResultCallback implements ResultCallback<Status> {
+    private final List<Message> mBatch;
+
+    BatchResultCallback(List<Message> batch) {
+      mBatch = batch;
+    }
+
+    @Override
+    public void onResult(Status result) {
+      onBatchDone(mBatch, result.isSuccess() ? null : result);
+      drain();
+    }
+  }
+
+  private void onBatchDone(List<Message> batch, Status failure) {
+    long now = SystemClock.elapsedRealtime();
+    synchronized (this) {
+      mInFlight--;
+      if (null == failure) {
+        mSent += batch.size();
+        mBatches++;
+        for (Message message : batch) {
+          long latency = now - message.mQueuedAt;
+          mTotalLatencyMs += latency;
+          mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+        }
+      } else {
+        mFailed += batch.size();
+      }
+    }
+    if (null != failure) {
+      mListener.onSendFailed(failure);
+      for (Message message : batch) {
+        if (null != message.mFailedListener) {
+          message.mFailedListener.onMessageFailed(failure.getStatusCode());
+        }
+      }
+    }
+  }
+
+  /*
+   * Drops the queued messages, for example because the device was disconnected. Sends that are in
+   * flight still report their result.
+   */
+  synchronized void clear() {
+    mDropped += mQueue.size();
+    for (Message message : mQueue) {
+      postFailed(message, CastStatusCodes.CANCELED);
+    }
+    mQueue.clear();
+    mQueuedByKey.clear();
+    notifyAll();
+  }
+
+  public synchronized int getQueueDepth() {
+    return mQueue.size();
+  }
+
+  public synchronized long getDroppedCount() {
+    return mDropped + mRejected;
+  }
+
+  /**
+   * Returns the average time from queueing a message to the confirmation of its send, in
+   * milliseconds.
+   */
+  public synchronized long getAverageLatency() {
+    return mSent == 0 ? 0 : mTotalLatencyMs / mSent;
+  }
+
+  /**
+   * Returns a human readable summary of the traffic on this namespace so far.
+   */
+  public synchronized String dumpMetrics() {
+    return mNamespace + ": queued " + mQueue.size() + " (max " + mMaxQueueDepth + "), in flight " +
+        mInFlight + "\nsent " + mSent + " in " + mBatches + " send(s), coalesced " + mCoalesced +
+        ", dropped " + mDropped + ", rejected " + mRejected + ", failed " + mFailed +
+        "\nlatency: avg " + getAverageLatency() + "ms, max " + mMaxLatencyMs + "ms\n";
+  }
+}
@@ -0,0 +1,108 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import com.google.android.gms.cast.MediaStatus;
+
+/**
+ * An immutable copy of the parts of a {@link MediaStatus} that the {@link VideoCastManager} fans
+ * out to its consumers and controllers. Comparing two snapshots with {@link #diff} tells which of
+ * those parts actually changed between two status updates, so that only the affected listeners
+ * are notified.
+ */
+final class MediaStatusSnapshot {
+
+  static final int CHANGED_PLAYER_STATE = 1;
+  static final int CHANGED_IDLE_REASON = 1 << 1;
+  static final int CHANGED_VOLUME = 1 << 2;
+  static final int CHANGED_MUTE = 1 << 3;
+  static final int CHANGED_POSITION = 1 << 4;
+
+  static final int CHANGED_PLAYBACK = CHANGED_PLAYER_STATE | CHANGED_IDLE_REASON;
+  static final int CHANGED_AUDIO = CHANGED_VOLUME | CHANGED_MUTE;
+  static final int CHANGED_ALL = CHANGED_PLAYBACK | CHANGED_AUDIO | CHANGED_POSITION;
+
+  /*
+   * Volumes are doubles read back from the receiver, so levels closer than this are treated as the
+   * same level reported twice.
+   */
+  private static final double VOLUME_EPSILON = 0.001;
+
+  private final int mPlayerState;
+  private final int mIdleReason;
+  private final double mVolume;
+  private final boolean mMute;
+  private final long mStreamPosition;
+
+  MediaStatusSnapshot(MediaStatus status, double volume, boolean mute) {
+    this(status.getPlayerState(), status.getIdleReason(), volume, mute, status.getStreamPosition());
+  }
+
+  private MediaStatusSnapshot(int playerState, int idleReason, double volume, boolean mute, long streamPosition) {
+    mPlayerState = playerState;
+    mIdleReason = idleReason;
+    mVolume = volume;
+    mMute = mute;
+    mStreamPosition = streamPosition;
+  }
+
+  /**
+   * Returns a copy of this snapshot with the volume and mute state replaced, for volume changes
+   * that arrive without a media status update.
+   */
+  MediaStatusSnapshot withVolume(double volume, boolean mute) {
+    return new MediaStatusSnapshot(mPlayerState, mIdleReason, volume, mute, mStreamPosition);
+  }
+
+  /**
+   * Returns a mask of the <code>CHANGED_*</code> flags for the fields that differ between
+   * <code>previous</code> and this snapshot. Everything has changed if there is no previous
+   * snapshot.
+   */
+  int diff(MediaStatusSnapshot previous) {
+    if (null == previous) {
+      return CHANGED_ALL;
+    }
+    int changes = 0;
+    if (mPlayerState != previous.mPlayerState) {
+      changes |= CHANGED_PLAYER_STATE;
+    }
+    if (mIdleReason != previous.mIdleReason) {
+      changes |= CHANGED_IDLE_REASON;
+    }
+    if (Math.abs(mVolume - previous.mVolume) > VOLUME_EPSILON) {
+      changes |= CHANGED_VOLUME;
+    }
+    if (mMute != previous.mMute) {
+      changes |= CHANGED_MUTE;
+    }
+    if (mStreamPosition != previous.mStreamPosition) {
+      changes |= CHANGED_POSITION;
+    }
+    return changes;
+  }
+
+  int getPlayerState() {
+    return mPlayerState;
+  }
+
+  int getIdleReason() {
+    return mIdleReason;
+  }
+
+  double getVolume() {
+    return mVolume;
+  }
+
+  boolean isMute() {
+    return mMute;
+  }
+
+  long getStreamPosition() {
+    return mStreamPosition;
+  }
+
+  @Override
+  public String toString() {
+    return "state=" + mPlayerState + ", idleReason=" + mIdleReason + ", volume=" + mVolume +
+        ", mute=" + mMute + ", position=" + mStreamPosition;
+  }
+}
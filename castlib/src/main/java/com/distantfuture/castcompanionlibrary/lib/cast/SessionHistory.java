@@ -0,0 +1,274 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import com.distantfuture.castcompanionlibrary.lib.utils.CastSettings;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sessions that this application recently had on cast devices, one per route, so that a
+ * session can be recovered on whichever of those devices is found first, and not only on the
+ * device that was used last. Each entry also records what was playing and where, which lets a
+ * recovered session show its position before the receiver reports one.
+ * <p/>
+ * Entries are indexed by route id and kept in the order they were last updated. The history is
+ * small, bounded by {@link #MAX_ENTRIES}, and is persisted as JSON through {@link CastSettings};
+ * entries older than {@link #MAX_AGE_MS} are dropped when the history is loaded.
+ */
+public class SessionHistory {
+
+  private static final String TAG = CastUtils.makeLogTag(SessionHistory.class);
+  static final int MAX_ENTRIES = 8;
+  static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+  private static final String KEY_ROUTE_ID = "routeId";
+  private static final String KEY_SESSION_ID = "sessionId";
+  private static final String KEY_APPLICATION_ID = "applicationId";
+  private static final String KEY_CONTENT_ID = "contentId";
+  private static final String KEY_POSITION = "position";
+  private static final String KEY_DURATION = "duration";
+  private static final String KEY_PLAYING = "playing";
+  private static final String KEY_STARTED_AT = "startedAt";
+  private static final String KEY_UPDATED_AT = "updatedAt";
+
+  /**
+   * A session on one route. Times are wall clock times in milliseconds, positions and durations
+   * are in milliseconds too.
+   */
+  public static final class Entry {
+    private final String mRouteId;
+    private final String mSessionId;
+    private final String mApplicationId;
+    private final long mStartedAt;
+    private String mContentId;
+    private long mPosition;
+    private long mDuration;
+    private boolean mPlaying;
+    private long mUpdatedAt;
+
+    private Entry(String routeId, String sessionId, String applicationId, long startedAt) {
+      mRouteId = routeId;
+      mSessionId = sessionId;
+      mApplicationId = applicationId;
+      mStartedAt = startedAt;
+      mUpdatedAt = startedAt;
+    }
+
+    public String getRouteId() {
+      return mRouteId;
+    }
+
+    public String getSessionId() {
+      return mSessionId;
+    }
+
+    public String getApplicationId() {
+      return mApplicationId;
+    }
+
+    /**
+     * Returns the content id of the media that was loaded, or <code>null</code> if there was none.
+     */
+    public String getContentId() {
+      return mContentId;
+    }
+
+    public long getPosition() {
+      return mPosition;
+    }
+
+    public long getDuration() {
+      return mDuration;
+    }
+
+    public boolean wasPlaying() {
+      return mPlaying;
+    }
+
+    public long getStartedAt() {
+      return mStartedAt;
+    }
+
+    public long getUpdatedAt() {
+      return mUpdatedAt;
+    }
+
+    @Override
+    public String toString() {
+      return "route=" + mRouteId + ", session=" + mSessionId + ", content=" + mContentId +
+          ", position=" + mPosition + ", updatedAt=" + mUpdatedAt;
+    }
+  }
+
+  private final CastSettings mSettings;
+  // least recently updated first
+  private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+
+  SessionHistory(CastSettings settings) {
+    mSettings = settings;
+    load();
+  }
+
+  /**
+   * Returns the session on the given route, or <code>null</code> if there is none.
+   */
+  public synchronized Entry get(String routeId) {
+    return null == routeId ? null : mEntries.get(routeId);
+  }
+
+  /**
+   * Returns the sessions of the given application, most recently updated first.
+   */
+  public synchronized List<Entry> getSessions(String applicationId) {
+    List<Entry> sessions = new ArrayList<Entry>();
+    for (Entry entry : mEntries.values()) {
+      if (entry.mApplicationId.equals(applicationId)) {
+        sessions.add(entry);
+      }
+    }
+    Collections.reverse(sessions);
+    return sessions;
+  }
+
+  /**
+   * Returns the most recently updated session of the given application, or <code>null</code>.
+   */
+  public synchronized Entry getMostRecent(String applicationId) {
+    Entry mostRecent = null;
+    for (Entry entry : mEntries.values()) {
+      if (entry.mApplicationId.equals(applicationId)) {
+        mostRecent = entry;
+      }
+    }
+    return mostRecent;
+  }
+
+  /*
+   * Records that a session was launched or joined on a route. Joining the session that is already
+   * recorded keeps what was known about its media.
+   */
+  synchronized void onSessionStarted(String routeId, String sessionId, String applicationId) {
+    if (null == routeId || null == sessionId || null == applicationId) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Entry entry = mEntries.remove(routeId);
+    if (null == entry || !entry.mSessionId.equals(sessionId)) {
+      entry = new Entry(routeId, sessionId, applicationId, now);
+    }
+    entry.mUpdatedAt = now;
+    mEntries.put(routeId, entry);
+    Iterator<Entry> it = mEntries.values().iterator();
+    while (mEntries.size() > MAX_ENTRIES) {
+      it.next();
+      it.remove();
+    }
+    save();
+  }
+
+  /*
+   * Records what is playing in the session on a route, and where. A <code>null</code> content id
+   * means that nothing is loaded any more.
+   */
+  synchronized void onPlaybackProgress(String routeId, String contentId, long position, long duration, boolean playing) {
+    Entry entry = null == routeId ? null : mEntries.remove(routeId);
+    if (null == entry) {
+      return;
+    }
+    entry.mContentId = contentId;
+    entry.mPosition = null == contentId ? 0 : position;
+    entry.mDuration = null == contentId ? 0 : duration;
+    entry.mPlaying = null != contentId && playing;
+    entry.mUpdatedAt = System.currentTimeMillis();
+    mEntries.put(routeId, entry);
+    save();
+  }
+
+  /*
+   * Forgets the session on a route, for example because the user left it or it no longer exists.
+   */
+  synchronized void remove(String routeId) {
+    if (null != routeId && null != mEntries.remove(routeId)) {
+      save();
+    }
+  }
+
+  /*
+   * Forgets all sessions of an application.
+   */
+  synchronized void removeAll(String applicationId) {
+    boolean changed = false;
+    Iterator<Entry> it = mEntries.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().mApplicationId.equals(applicationId)) {
+        it.remove();
+        changed = true;
+      }
+    }
+    if (changed) {
+      save();
+    }
+  }
+
+  private void load() {
+    String json = mSettings.getString(BaseCastManager.PREFS_KEY_SESSION_HISTORY, null);
+    if (null == json) {
+      return;
+    }
+    long oldest = System.currentTimeMillis() - MAX_AGE_MS;
+    try {
+      JSONArray array = new JSONArray(json);
+      for (int i = 0; i < array.length(); i++) {
+        JSONObject object = array.getJSONObject(i);
+        Entry entry = new Entry(object.getString(KEY_ROUTE_ID), object.getString(KEY_SESSION_ID),
+            object.getString(KEY_APPLICATION_ID), object.getLong(KEY_STARTED_AT));
+        entry.mContentId = object.optString(KEY_CONTENT_ID, null);
+        entry.mPosition = object.optLong(KEY_POSITION);
+        entry.mDuration = object.optLong(KEY_DURATION);
+        entry.mPlaying = object.optBoolean(KEY_PLAYING);
+        entry.mUpdatedAt = object.getLong(KEY_UPDATED_AT);
+        if (entry.mUpdatedAt >= oldest) {
+          mEntries.put(entry.mRouteId, entry);
+        }
+      }
+    } catch (JSONException e) {
+      CastUtils.LOGE(TAG, "Failed to read the session history, starting afresh", e);
+      mEntries.clear();
+    }
+    CastUtils.LOGD(TAG, "Loaded " + mEntries.size() + " session(s) from the history");
+  }
+
+  private void save() {
+    JSONArray array = new JSONArray();
+    try {
+      for (Entry entry : mEntries.values()) {
+        JSONObject object = new JSONObject();
+        object.put(KEY_ROUTE_ID, entry.mRouteId);
+        object.put(KEY_SESSION_ID, entry.mSessionId);
+        object.put(KEY_APPLICATION_ID, entry.mApplicationId);
+        object.put(KEY_STARTED_AT, entry.mStartedAt);
+        object.put(KEY_UPDATED_AT, entry.mUpdatedAt);
+        if (null != entry.mContentId) {
+          object.put(KEY_CONTENT_ID, entry.mContentId);
+          object.put(KEY_POSITION, entry.mPosition);
+          object.put(KEY_DURATION, entry.mDuration);
+          object.put(KEY_PLAYING, entry.mPlaying);
+        }
+        array.put(object);
+      }
+    } catch (JSONException e) {
+      CastUtils.LOGE(TAG, "Failed to write the session history", e);
+      return;
+    }
+    mSettings.putString(BaseCastManager.PREFS_KEY_SESSION_HISTORY, mEntries.isEmpty() ? null : array.toString());
+  }
+}
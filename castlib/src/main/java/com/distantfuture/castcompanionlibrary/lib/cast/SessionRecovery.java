@@ -0,0 +1,354 @@
+package com.distantfuture.castcompanionlibrary.lib.cast;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.SystemClock;
+import android.support.v7.media.MediaRouter.RouteInfo;
+
+import com.distantfuture.castcompanionlibrary.lib.R;
+import com.distantfuture.castcompanionlibrary.lib.cast.BaseCastManager.ReconnectionStatus;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+import com.distantfuture.castcompanionlibrary.lib.utils.UiTaskScheduler;
+import com.google.android.gms.cast.CastDevice;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives the recovery of a previous session for a {@link BaseCastManager}. Recovery is a state
+ * machine over {@link ReconnectionStatus} that advances on events rather than by polling:
+ * <ul>
+ * <li>{@link ReconnectionStatus#STARTED}: waiting for the route of the previous session, either
+ * from {@link #onRouteAdded(RouteInfo)} or when a backoff delay expires
+ * <li>{@link ReconnectionStatus#IN_PROGRESS}: connecting to the device and joining the session
+ * <li>{@link ReconnectionStatus#FINALIZE}: the session was joined and its route is being selected
+ * <li>{@link ReconnectionStatus#INACTIVE}: recovery is over, see {@link Outcome}
+ * </ul>
+ * The session is looked for on the route of the last session and on the routes of the earlier
+ * sessions in the {@link SessionHistory}. The route used last is attempted as soon as it is found;
+ * any other is attempted after a short grace period in which a more recently used route may still
+ * show up.
+ * <p/>
+ * An attempt that fails in a way that may be transient is retried with exponential backoff, until
+ * the deadline given to {@link #start(Context, boolean, int)} expires. A join that is still under way
+ * at the deadline gets a few more seconds to report its result; after that the recovery times out
+ * whatever state it is in, so that a lost callback cannot keep it running. All methods must be
+ * called on the main thread.
+ */
+class SessionRecovery {
+
+  private static final String TAG = CastUtils.makeLogTag(SessionRecovery.class);
+  private static final long INITIAL_BACKOFF_MS = 250;
+  private static final long MAX_BACKOFF_MS = 4000;
+  private static final long CANDIDATE_GRACE_MS = 1000;
+  private static final long JOIN_GRACE_MS = 5000;
+
+  /**
+   * How a recovery ended.
+   */
+  enum Outcome {
+    RECOVERED, FAILED, TIMED_OUT, CANCELLED
+  }
+
+  private final BaseCastManager mCastManager;
+  private final Map<Outcome, Integer> mOutcomes = new EnumMap<Outcome, Integer>(Outcome.class);
+  private long mTotalRecoveryMs;
+  private long mMaxRecoveryMs;
+
+  private boolean mActive;
+  private long mStartedAt;
+  private long mDeadline;
+  private int mAttempts;
+  private long mBackoff;
+  private UiTaskScheduler.Token mDeadlineTimer;
+  private UiTaskScheduler.Token mRetryTimer;
+  private ProgressDialog mDialog;
+
+  SessionRecovery(BaseCastManager castManager) {
+    mCastManager = castManager;
+  }
+
+  boolean isActive() {
+    return mActive;
+  }
+
+  /**
+   * Starts recovering the persisted session, unless a recovery is already running. Gives up after
+   * <code>timeoutInSeconds</code>.
+   */
+  void start(Context context, boolean showDialog, int timeoutInSeconds) {
+    if (mActive) {
+      CastUtils.LOGD(TAG, "start(): a recovery is already in progress");
+      return;
+    }
+    mActive = true;
+    mStartedAt = SystemClock.elapsedRealtime();
+    mDeadline = mStartedAt + timeoutInSeconds * 1000L;
+    mAttempts = 0;
+    mBackoff = INITIAL_BACKOFF_MS;
+    mDeadlineTimer = UiTaskScheduler.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        onDeadline(false);
+      }
+    }, timeoutInSeconds * 1000L);
+    if (showDialog) {
+      showDialog(context);
+    }
+    // scan actively for as long as the recovery runs
+    mCastManager.updateDiscovery();
+    RouteInfo route = findRoute();
+    if (null != route && isPreferred(route)) {
+      attempt(route);
+    } else {
+      // the route will hopefully be discovered before the deadline
+      mCastManager.mReconnectionStatus = ReconnectionStatus.STARTED;
+      if (null != route) {
+        scheduleAttempt(CANDIDATE_GRACE_MS);
+      }
+    }
+  }
+
+  /**
+   * Called by the router callback for every route that shows up.
+   */
+  void onRouteAdded(RouteInfo route) {
+    if (!mActive || mCastManager.mReconnectionStatus != ReconnectionStatus.STARTED) {
+      return;
+    }
+    if (isPreferred(route)) {
+      CastUtils.LOGD(TAG, "onRouteAdded: Attempting to recover a session with info=" + route);
+      cancelRetry();
+      attempt(route);
+    } else if (null != candidateEntry(route) && null == mRetryTimer) {
+      CastUtils.LOGD(TAG, "onRouteAdded: Found an earlier session with info=" + route);
+      scheduleAttempt(CANDIDATE_GRACE_MS);
+    }
+  }
+
+  /**
+   * Called when the route of the recovered session has been selected.
+   */
+  void onRecovered() {
+    if (mActive) {
+      finish(Outcome.RECOVERED);
+    } else {
+      mCastManager.mReconnectionStatus = ReconnectionStatus.INACTIVE;
+    }
+  }
+
+  /**
+   * Called when an attempt failed. If <code>isTransient</code>, the attempt is retried after a
+   * backoff delay as long as the deadline allows it; otherwise the recovery is abandoned and the
+   * device is deselected.
+   */
+  void onAttemptFailed(boolean isTransient) {
+    if (!mActive) {
+      mCastManager.mReconnectionStatus = ReconnectionStatus.INACTIVE;
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    if (!isTransient || now + mBackoff >= mDeadline || !mCastManager.canConsiderSessionRecovery()) {
+      CastUtils.LOGD(TAG, "onAttemptFailed(): giving up after " + mAttempts + " attempt(s)");
+      mCastManager.mSessionHistory.remove(mCastManager.mSettings.getRouteId());
+      finish(Outcome.FAILED);
+      mCastManager.onDeviceSelected(null);
+      return;
+    }
+    CastUtils.LOGD(TAG, "onAttemptFailed(): retrying in " + mBackoff + "ms");
+    mCastManager.mReconnectionStatus = ReconnectionStatus.STARTED;
+    scheduleAttempt(mBackoff);
+    mBackoff = Math.min(mBackoff * 2, MAX_BACKOFF_MS);
+  }
+
+  /**
+   * Abandons the recovery, for example because the user asked to. The device is deselected if
+   * recovery had got that far.
+   */
+  void cancel() {
+    if (!mActive) {
+      return;
+    }
+    boolean deselect = mCastManager.mReconnectionStatus != ReconnectionStatus.INACTIVE;
+    finish(Outcome.CANCELLED);
+    if (deselect) {
+      mCastManager.onDeviceSelected(null);
+    }
+  }
+
+  /**
+   * Returns a human readable summary of the outcomes of the recoveries so far, and how long the
+   * successful ones took.
+   */
+  String dumpMetrics() {
+    StringBuilder sb = new StringBuilder();
+    for (Outcome outcome : Outcome.values()) {
+      Integer count = mOutcomes.get(outcome);
+      sb.append(outcome).append(": ").append(null == count ? 0 : count).append('\n');
+    }
+    Integer recovered = mOutcomes.get(Outcome.RECOVERED);
+    if (null != recovered) {
+      sb.append("recovery time: avg ").append(mTotalRecoveryMs / recovered).append("ms, max ")
+          .append(mMaxRecoveryMs).append("ms\n");
+    }
+    return sb.toString();
+  }
+
+  private void attempt(RouteInfo route) {
+    CastDevice device = CastDevice.getFromBundle(route.getExtras());
+    if (null == device) {
+      onAttemptFailed(false);
+      return;
+    }
+    mAttempts++;
+    mCastManager.mReconnectionStatus = ReconnectionStatus.IN_PROGRESS;
+    CastUtils.LOGD(TAG, "Recovery attempt " + mAttempts + " with device: " + device.getFriendlyName());
+    if (mCastManager.isConnected()) {
+      // the device is still connected but joining the session failed, so only join again
+      mCastManager.rejoinApplication();
+    } else {
+      SessionHistory.Entry entry = candidateEntry(route);
+      if (null != entry) {
+        // the session to join is the one recorded for this route
+        mCastManager.mSettings.setRouteId(entry.getRouteId());
+        mCastManager.mSettings.setSessionId(entry.getSessionId());
+      }
+      mCastManager.onDeviceSelected(device);
+    }
+  }
+
+  private void scheduleAttempt(long delay) {
+    mRetryTimer = UiTaskScheduler.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        mRetryTimer = null;
+        RouteInfo route = findRoute();
+        if (null != route && mCastManager.mReconnectionStatus == ReconnectionStatus.STARTED) {
+          attempt(route);
+        }
+      }
+    }, delay);
+  }
+
+  private void onDeadline(boolean graceExpired) {
+    mDeadlineTimer = null;
+    if (!mActive) {
+      return;
+    }
+    if (!graceExpired && mCastManager.isConnected() &&
+        mCastManager.mReconnectionStatus != ReconnectionStatus.STARTED) {
+      // connected to the device and joining the session; its result should end the recovery, and
+      // no retry will be made now that the deadline has passed
+      CastUtils.LOGD(TAG, "Deadline passed while joining the session");
+      mDeadlineTimer = UiTaskScheduler.getInstance().schedule(new Runnable() {
+        @Override
+        public void run() {
+          onDeadline(true);
+        }
+      }, JOIN_GRACE_MS);
+    } else {
+      finish(Outcome.TIMED_OUT);
+      mCastManager.onDeviceSelected(null);
+    }
+  }
+
+  private void finish(Outcome outcome) {
+    long elapsed = SystemClock.elapsedRealtime() - mStartedAt;
+    CastUtils.LOGD(TAG, "Session recovery " + outcome + " after " + elapsed + "ms and " + mAttempts +
+        " attempt(s)");
+    mActive = false;
+    mCastManager.mReconnectionStatus = ReconnectionStatus.INACTIVE;
+    cancelRetry();
+    if (null != mDeadlineTimer) {
+      mDeadlineTimer.cancel();
+      mDeadlineTimer = null;
+    }
+    if (null != mDialog) {
+      mDialog.dismiss();
+      mDialog = null;
+    }
+    mCastManager.updateDiscovery();
+    if (outcome == Outcome.TIMED_OUT || outcome == Outcome.CANCELLED) {
+      // none of the sessions could be recovered in time, or the user did not want them
+      mCastManager.mSessionHistory.removeAll(mCastManager.mApplicationId);
+    }
+    Integer count = mOutcomes.get(outcome);
+    mOutcomes.put(outcome, null == count ? 1 : count + 1);
+    if (outcome == Outcome.RECOVERED) {
+      mTotalRecoveryMs += elapsed;
+      mMaxRecoveryMs = Math.max(mMaxRecoveryMs, elapsed);
+    }
+  }
+
+  private void cancelRetry() {
+    if (null != mRetryTimer) {
+      mRetryTimer.cancel();
+      mRetryTimer = null;
+    }
+  }
+
+  /*
+   * Returns the route of the last session if it is available, and otherwise the available route
+   * with the most recent session in the history.
+   */
+  private RouteInfo findRoute() {
+    List<RouteInfo> routes = mCastManager.mMediaRouter.getRoutes();
+    if (null == routes) {
+      return null;
+    }
+    RouteInfo best = null;
+    long bestUpdatedAt = Long.MIN_VALUE;
+    for (RouteInfo route : routes) {
+      if (isPreferred(route)) {
+        return route;
+      }
+      SessionHistory.Entry entry = candidateEntry(route);
+      if (null != entry && entry.getUpdatedAt() > bestUpdatedAt) {
+        best = route;
+        bestUpdatedAt = entry.getUpdatedAt();
+      }
+    }
+    return best;
+  }
+
+  /*
+   * Whether the route is the one of the last session, or of the most recent session in the history
+   * if the last session was forgotten.
+   */
+  private boolean isPreferred(RouteInfo route) {
+    String routeId = mCastManager.mSettings.getRouteId();
+    if (null == routeId) {
+      SessionHistory.Entry mostRecent = mCastManager.mSessionHistory.getMostRecent(mCastManager.mApplicationId);
+      routeId = null == mostRecent ? null : mostRecent.getRouteId();
+    }
+    return route.getId().equals(routeId);
+  }
+
+  private SessionHistory.Entry candidateEntry(RouteInfo route) {
+    SessionHistory.Entry entry = mCastManager.mSessionHistory.get(route.getId());
+    return null != entry && entry.getApplicationId().equals(mCastManager.mApplicationId) ? entry : null;
+  }
+
+  private void showDialog(Context context) {
+    DialogInterface.OnClickListener cancelListener = new DialogInterface.OnClickListener() {
+      @Override
+      public void onClick(DialogInterface dialog, int which) {
+        cancel();
+      }
+    };
+    mDialog = new ProgressDialog(context);
+    mDialog.setMessage(context.getString(R.string.session_reconnection_attempt));
+    mDialog.setIndeterminate(true);
+    mDialog.setCancelable(true);
+    mDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+      @Override
+      public void onCancel(DialogInterface dialog) {
+        cancel();
+      }
+    });
+    mDialog.setButton(ProgressDialog.BUTTON_NEGATIVE, "Cancel", cancelListener);
+    mDialog.show();
+  }
+}
@@ -7,18 +7,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.media.MediaMetadataRetriever;
 import android.media.RemoteControlClient;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.MediaRouteDialogFactory;
 import android.support.v7.media.MediaRouter.RouteInfo;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.view.View;
 
 import com.distantfuture.castcompanionlibrary.lib.R;
+import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.IPlaybackPositionListener;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.IVideoCastConsumer;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.VideoCastConsumerImpl;
 import com.distantfuture.castcompanionlibrary.lib.cast.dialog.video.VideoMediaRouteDialogFactory;
@@ -28,6 +30,7 @@ import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.OnFailedListen
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetworkDisconnectionException;
 import com.distantfuture.castcompanionlibrary.lib.cast.player.IMediaAuthService;
 import com.distantfuture.castcompanionlibrary.lib.cast.player.VideoCastControllerActivity;
+import com.distantfuture.castcompanionlibrary.lib.utils.ArtworkCache;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.distantfuture.castcompanionlibrary.lib.utils.IMiniController;
 import com.distantfuture.castcompanionlibrary.lib.utils.MiniController;
@@ -54,11 +57,10 @@ import com.google.android.gms.common.images.WebImage;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * A concrete subclass of {@link BaseCastManager} that is suitable for casting video contents (it
@@ -107,18 +109,33 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   }
 
   private static final String TAG = CastUtils.makeLogTag(VideoCastManager.class);
+  private static final long POSITION_TICK_MS = 1000;
+  private static final long POSITION_DRIFT_TOLERANCE_MS = 1000;
   private static VideoCastManager sInstance;
   private final Set<IMiniController> mMiniControllers;
   private final AudioManager mAudioManager;
   private RemoteMediaPlayer mRemoteMediaPlayer;
   private RemoteControlClient mRemoteControlClient;
+  private final Object mLockScreenArtworkTarget = new Object();
   private VolumeType mVolumeType = VolumeType.DEVICE;
   private int mState = MediaStatus.PLAYER_STATE_IDLE;
   private int mIdleReason;
+  private MediaStatusSnapshot mLastStatus;
+  private int mPendingStatusChanges;
+  private boolean mStatusDispatchScheduled;
+  private long mPositionAnchor;
+  private long mPositionAnchorTime;
+  private double mPlaybackRate = 1;
+  private long mStreamDuration;
+  private final Set<IPlaybackPositionListener> mPositionListeners =
+      new CopyOnWriteArraySet<IPlaybackPositionListener>();
   private final ComponentName mMediaButtonReceiverComponent;
   private final String mDataNamespace;
+  private DataChannelSender mDataChannelSender;
+  private DataChannelRpc mDataChannelRpc;
   private Cast.MessageReceivedCallback mDataChannel;
-  protected Set<IVideoCastConsumer> mVideoConsumers;
+  protected final ConsumerEventBus<IVideoCastConsumer> mVideoConsumers =
+      new ConsumerEventBus<IVideoCastConsumer>();
   private IMediaAuthService mAuthService;
 
   /**
@@ -180,7 +197,6 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   private VideoCastManager(Context context, String applicationId, String dataNamespace) {
     super(context, applicationId);
     CastUtils.LOGD(TAG, "VideoCastManager is instantiated");
-    mVideoConsumers = new HashSet<IVideoCastConsumer>();
     mDataNamespace = dataNamespace;
 
     mMiniControllers = new HashSet<IMiniController>();
@@ -618,6 +634,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   @Override
   protected void onUiVisibilityChanged(boolean visible) {
     super.onUiVisibilityChanged(visible);
+    updatePositionTicker();
     if (isFeatureEnabled(FEATURE_NOTIFICATION)) {
       Intent intent = new Intent(VideoCastNotificationService.ACTION_VISIBILITY);
       intent.setPackage(mContext.getPackageName());
@@ -661,19 +678,18 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
    * ********************************************************
    */
 
-  private void onApplicationDisconnected(int errorCode) {
+  private void onApplicationDisconnected(final int errorCode) {
     CastUtils.LOGD(TAG, "onApplicationDisconnected() reached with error code: " + errorCode);
     updateRemoteControl(false);
     if (null != mRemoteControlClient && isFeatureEnabled(FEATURE_LOCKSCREEN)) {
       mMediaRouter.removeRemoteControlClient(mRemoteControlClient);
     }
-    for (IVideoCastConsumer consumer : mVideoConsumers) {
-      try {
+    mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onApplicationDisconnected") {
+      @Override
+      protected void deliver(IVideoCastConsumer consumer) {
         consumer.onApplicationDisconnected(errorCode);
-      } catch (Exception e) {
-        CastUtils.LOGE(TAG, "onApplicationDisconnected(): Failed to inform " + consumer, e);
       }
-    }
+    });
     if (null != mMediaRouter) {
       mMediaRouter.selectRoute(mMediaRouter.getDefaultRoute());
     }
@@ -691,13 +707,13 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       appStatus = Cast.CastApi.getApplicationStatus(mApiClient);
       CastUtils.LOGD(TAG, "onApplicationStatusChanged() reached: " + Cast.CastApi.getApplicationStatus(mApiClient));
 
-      for (IVideoCastConsumer consumer : mVideoConsumers) {
-        try {
-          consumer.onApplicationStatusChanged(appStatus);
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "onApplicationStatusChanged(): Failed to inform " + consumer, e);
+      final String status = appStatus;
+      mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onApplicationStatusChanged", true) {
+        @Override
+        protected void deliver(IVideoCastConsumer consumer) {
+          consumer.onApplicationStatusChanged(status);
         }
-      }
+      });
     } catch (IllegalStateException e1) {
       // no use in logging this
     }
@@ -705,16 +721,18 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 
   private void onVolumeChanged() {
     CastUtils.LOGD(TAG, "onVolumeChanged() reached");
-    double volume = 0;
     try {
-      volume = getVolume();
+      double volume = getVolume();
       boolean isMute = isMute();
-      for (IVideoCastConsumer consumer : mVideoConsumers) {
-        try {
-          consumer.onVolumeChanged(volume, isMute);
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "onVolumeChanged(): Failed to inform " + consumer, e);
+      if (null != mLastStatus) {
+        MediaStatusSnapshot status = mLastStatus.withVolume(volume, isMute);
+        int changes = status.diff(mLastStatus);
+        mLastStatus = status;
+        if (changes != 0) {
+          scheduleStatusDispatch(changes);
         }
+      } else {
+        postVolumeChanged(volume, isMute);
       }
     } catch (Exception e1) {
       CastUtils.LOGE(TAG, "Failed to get volume", e1);
@@ -722,8 +740,17 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 
   }
 
+  private void postVolumeChanged(final double volume, final boolean isMute) {
+    mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onVolumeChanged", true) {
+      @Override
+      protected void deliver(IVideoCastConsumer consumer) {
+        consumer.onVolumeChanged(volume, isMute);
+      }
+    });
+  }
+
   @Override
-  void onApplicationConnected(ApplicationMetadata appMetadata, String applicationStatus, String sessionId, boolean wasLaunched) {
+  void onApplicationConnected(final ApplicationMetadata appMetadata, String applicationStatus, final String sessionId, final boolean wasLaunched) {
     CastUtils.LOGD(TAG, "onApplicationConnected() reached with sessionId: " + sessionId + ", and mReconnectionStatus=" + mReconnectionStatus);
 
     if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
@@ -731,24 +758,34 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       // it is time to select the route and make the cast icon happy :-)
       List<RouteInfo> routes = mMediaRouter.getRoutes();
       if (null != routes) {
-        String routeId = CastUtils.getStringFromPreference(mContext, PREFS_KEY_ROUTE_ID);
+        String routeId = mSettings.getRouteId();
+        boolean found = false;
         for (RouteInfo routeInfo : routes) {
           if (routeId.equals(routeInfo.getId())) {
             // found the right route
             CastUtils.LOGD(TAG, "Found the correct route during reconnection attempt");
+            found = true;
             mReconnectionStatus = ReconnectionStatus.FINALIZE;
             mMediaRouter.selectRoute(routeInfo);
             break;
           }
         }
+        if (!found) {
+          // we were hoping to have the route that we wanted, but we
+          // didn't so we deselect the device
+          onSessionRecoveryFailed(false);
+          return;
+        }
       }
     }
     startNotificationService();
     try {
       attachDataChannel();
       attachMediaChannel();
-      // saving device for future retrieval; we only save the last session info
-      CastUtils.saveStringToPreference(mContext, PREFS_KEY_SESSION_ID, sessionId);
+      onSessionStarted(sessionId);
+      if (!wasLaunched) {
+        restorePlaybackProgress(sessionId);
+      }
       mRemoteMediaPlayer.requestStatus(mApiClient).
           setResultCallback(new ResultCallback<RemoteMediaPlayer.MediaChannelResult>() {
 
@@ -760,13 +797,12 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 
             }
           });
-      for (IVideoCastConsumer consumer : mVideoConsumers) {
-        try {
+      mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onApplicationConnected") {
+        @Override
+        protected void deliver(IVideoCastConsumer consumer) {
           consumer.onApplicationConnected(appMetadata, sessionId, wasLaunched);
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "onApplicationConnected(): Failed to inform " + consumer, e);
         }
-      }
+      });
     } catch (TransientNetworkDisconnectionException e) {
       CastUtils.LOGE(TAG, "Failed to attach media/data channel due to network issues", e);
       onFailed(R.string.failed_no_connection_trans, NO_STATUS_CODE);
@@ -783,8 +819,13 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
    */
   @Override
   public void onConnectivityRecovered() {
+    resetStatusSnapshot();
     reattachMediaChannel();
     super.onConnectivityRecovered();
+    if (null != mDataChannelSender) {
+      // send what was queued while the connection was suspended
+      mDataChannelSender.drain();
+    }
   }
 
   /*
@@ -792,30 +833,26 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
    * @see com.google.android.gms.cast.CastClient.Listener#onApplicationStopFailed (int)
    */
   @Override
-  public void onApplicationStopFailed(int errorCode) {
-    for (IVideoCastConsumer consumer : mVideoConsumers) {
-      try {
+  public void onApplicationStopFailed(final int errorCode) {
+    mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onApplicationStopFailed") {
+      @Override
+      protected void deliver(IVideoCastConsumer consumer) {
         consumer.onApplicationStopFailed(errorCode);
-      } catch (Exception e) {
-        CastUtils.LOGE(TAG, "onApplicationLaunched(): Failed to inform " + consumer, e);
       }
-    }
+    });
   }
 
   @Override
   public void onApplicationConnectionFailed(int errorCode) {
     CastUtils.LOGD(TAG, "onApplicationConnectionFailed() reached with errorCode: " + errorCode);
     if (mReconnectionStatus == ReconnectionStatus.IN_PROGRESS) {
-      if (errorCode == CastStatusCodes.APPLICATION_NOT_RUNNING) {
-        // while trying to re-establish session, we
-        // found out that the app is not running so we need
-        // to disconnect
-        mReconnectionStatus = ReconnectionStatus.INACTIVE;
-        onDeviceSelected(null);
-      }
+      // while trying to re-establish session, we may find out that the app is not running so we
+      // need to disconnect; anything else is worth another try
+      onSessionRecoveryFailed(errorCode != CastStatusCodes.APPLICATION_NOT_RUNNING);
     } else {
+      // consumers vote on showing the error, so this one is delivered synchronously to everyone
       boolean showError = false;
-      for (IVideoCastConsumer consumer : mVideoConsumers) {
+      for (IVideoCastConsumer consumer : mVideoConsumers.getConsumers()) {
         try {
           showError = showError || consumer.onApplicationConnectionFailed(errorCode);
         } catch (Exception e) {
@@ -886,6 +923,10 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       throw new NoConnectionException();
     }
 
+    // warm the artwork for the controller screen and lock screen while the receiver loads
+    int size = getFullScreenImageSize();
+    ArtworkCache.getInstance(mContext).prefetch(CastUtils.getImageUrl(media, 1), size, size);
+
     mRemoteMediaPlayer.load(mApiClient, media, autoPlay, position, customData)
         .setResultCallback(new ResultCallback<RemoteMediaPlayer.MediaChannelResult>() {
 
@@ -1014,6 +1055,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       CastUtils.LOGE(TAG, "Trying to seek a video with no active media session");
       throw new NoConnectionException();
     }
+    moveClockTo(position);
     mRemoteMediaPlayer.seek(mApiClient, position, RemoteMediaPlayer.RESUME_STATE_UNCHANGED).
         setResultCallback(new ResultCallback<MediaChannelResult>() {
 
@@ -1039,6 +1081,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       CastUtils.LOGE(TAG, "Trying to seekAndPlay a video with no active media session");
       throw new NoConnectionException();
     }
+    moveClockTo(position);
     ResultCallback<MediaChannelResult> resultCallback = new ResultCallback<MediaChannelResult>() {
 
       @Override
@@ -1071,6 +1114,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   }
 
   private void attachMediaChannel() throws TransientNetworkDisconnectionException, NoConnectionException {
+    resetStatusSnapshot();
     CastUtils.LOGD(TAG, "attachMedia()");
     checkConnectivity();
     if (null == mRemoteMediaPlayer) {
@@ -1117,6 +1161,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
 
   private void detachMediaChannel() {
     CastUtils.LOGD(TAG, "trying to detach media channel");
+    resetStatusSnapshot();
     if (null != mRemoteMediaPlayer) {
       if (null != mRemoteMediaPlayer && null != Cast.CastApi) {
         try {
@@ -1175,14 +1220,16 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     mDataChannel = new MessageReceivedCallback() {
 
       @Override
-      public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
-        for (IVideoCastConsumer consumer : mVideoConsumers) {
-          try {
+      public void onMessageReceived(CastDevice castDevice, String namespace, final String message) {
+        if (null != mDataChannelRpc && mDataChannelRpc.onMessageReceived(message)) {
+          return;
+        }
+        mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onDataMessageReceived") {
+          @Override
+          protected void deliver(IVideoCastConsumer consumer) {
             consumer.onDataMessageReceived(message);
-          } catch (Exception e) {
-            CastUtils.LOGE(TAG, "onMessageReceived(): Failed to inform " + consumer, e);
           }
-        }
+        });
       }
     };
     try {
@@ -1192,45 +1239,76 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     }
   }
 
-  private void onMessageSendFailed(int errorCode) {
-    for (IVideoCastConsumer consumer : mVideoConsumers) {
-      try {
+  private void onMessageSendFailed(final int errorCode) {
+    mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onDataMessageSendFailed") {
+      @Override
+      protected void deliver(IVideoCastConsumer consumer) {
         consumer.onDataMessageSendFailed(errorCode);
-      } catch (Exception e) {
-        CastUtils.LOGE(TAG, "onMessageSendFailed(): Failed to inform " + consumer, e);
       }
-    }
+    });
   }
 
   /**
    * Sends the <code>message</code> on the data channel for the namespace that was provided during
-   * the initialization of this class. If <code>messageId &gt; 0</code>, then it has to be a
-   * unique identifier for the message; this id will be returned if an error occurs. If
-   * <code>messageId == 0</code>, then an auto-generated unique identifier will be created and
-   * returned for the message.
+   * the initialization of this class. The message is queued and sent in order with the other
+   * messages of the data channel, see {@link DataChannelSender}; if sending fails, consumers are
+   * told through <code>onDataMessageSendFailed</code>. To match replies of the receiver to
+   * requests, use {@link #getDataChannelRpc()} instead.
    *
    * @param message
-   * @return
    * @throws IllegalStateException                  If the namespace is empty or null
    * @throws NoConnectionException                  If no connectivity to the device exists
    * @throws TransientNetworkDisconnectionException If framework is still trying to recover from a
    *                                                possibly transient loss of network
    */
   public void sendDataMessage(String message) throws TransientNetworkDisconnectionException, NoConnectionException {
+    sendDataMessage(message, null);
+  }
+
+  /**
+   * Queues the <code>message</code> for the data channel, like {@link #sendDataMessage(String)}.
+   * If a message with the same <code>coalescingKey</code> is still waiting to be sent, it is
+   * replaced by this one. See {@link DataChannelSender}.
+   *
+   * @throws IllegalStateException                  If the namespace is empty or null
+   * @throws NoConnectionException                  If no connectivity to the device exists
+   * @throws TransientNetworkDisconnectionException If framework is still trying to recover from a
+   *                                                possibly transient loss of network
+   */
+  public void sendDataMessage(String message, String coalescingKey) throws TransientNetworkDisconnectionException, NoConnectionException {
     if (TextUtils.isEmpty(mDataNamespace)) {
       throw new IllegalStateException("No Data Namespace is configured");
     }
     checkConnectivity();
-    Cast.CastApi.sendMessage(mApiClient, mDataNamespace, message)
-        .setResultCallback(new ResultCallback<Status>() {
+    getDataChannelSender().send(message, coalescingKey);
+  }
 
-          @Override
-          public void onResult(Status result) {
-            if (!result.isSuccess()) {
-              VideoCastManager.this.onMessageSendFailed(result.getStatusCode());
-            }
-          }
-        });
+  /**
+   * Returns the outbound queue of the data channel, to tune how it batches messages and handles
+   * overload, or to read its metrics. Returns <code>null</code> if no data namespace is configured.
+   */
+  public synchronized DataChannelSender getDataChannelSender() {
+    if (null == mDataChannelSender && !TextUtils.isEmpty(mDataNamespace)) {
+      mDataChannelSender = new DataChannelSender(this, mDataNamespace, new DataChannelSender.OnSendFailedListener() {
+        @Override
+        public void onSendFailed(Status status) {
+          onMessageSendFailed(status.getStatusCode());
+        }
+      });
+    }
+    return mDataChannelSender;
+  }
+
+  /**
+   * Returns the request/reply layer of the data channel, which matches the replies of the receiver
+   * to requests by their <code>requestId</code>. Returns <code>null</code> if no data namespace is
+   * configured.
+   */
+  public synchronized DataChannelRpc getDataChannelRpc() {
+    if (null == mDataChannelRpc && !TextUtils.isEmpty(mDataNamespace)) {
+      mDataChannelRpc = new DataChannelRpc(getDataChannelSender());
+    }
+    return mDataChannelRpc;
   }
 
   /**
@@ -1270,58 +1348,267 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
       CastUtils.LOGD(TAG, "mApiClient or mRemoteMediaPlayer is null, so will not proceed");
       return;
     }
-    mState = mRemoteMediaPlayer.getMediaStatus().getPlayerState();
-    mIdleReason = mRemoteMediaPlayer.getMediaStatus().getIdleReason();
+    MediaStatus mediaStatus = mRemoteMediaPlayer.getMediaStatus();
+    long expectedPosition = estimatedPosition();
+    mState = mediaStatus.getPlayerState();
+    mIdleReason = mediaStatus.getIdleReason();
 
+    MediaStatusSnapshot status;
     try {
-      double volume = getVolume();
-      boolean isMute = isMute();
+      status = new MediaStatusSnapshot(mediaStatus, getVolume(), isMute());
+    } catch (TransientNetworkDisconnectionException e) {
+      CastUtils.LOGE(TAG, "Failed to get volume state due to network issues", e);
+      return;
+    } catch (NoConnectionException e) {
+      CastUtils.LOGE(TAG, "Failed to get volume state due to network issues", e);
+      return;
+    }
+    int changes = status.diff(mLastStatus);
+    if ((changes & MediaStatusSnapshot.CHANGED_POSITION) != 0 && null != mLastStatus &&
+        Math.abs(status.getStreamPosition() - expectedPosition) < POSITION_DRIFT_TOLERANCE_MS) {
+      // the receiver only reports where the position clock already is
+      changes &= ~MediaStatusSnapshot.CHANGED_POSITION;
+    }
+    mLastStatus = status;
+    anchorPosition(mediaStatus);
+    if (changes == 0) {
+      CastUtils.LOGD(TAG, "onRemoteMediaPlayerStatusUpdated(): nothing changed");
+      return;
+    }
+    scheduleStatusDispatch(changes);
+  }
+
+  /*
+   * Status updates can arrive in bursts; the changes are accumulated and fanned out once, on the
+   * next pass of the main loop, against the latest snapshot.
+   */
+  private void scheduleStatusDispatch(int changes) {
+    mPendingStatusChanges |= changes;
+    if (!mStatusDispatchScheduled) {
+      mStatusDispatchScheduled = true;
+      mHandler.post(mStatusDispatcher);
+    }
+  }
+
+  private final Runnable mStatusDispatcher = new Runnable() {
+    @Override
+    public void run() {
+      int changes = mPendingStatusChanges;
+      mPendingStatusChanges = 0;
+      mStatusDispatchScheduled = false;
+      if (null != mLastStatus && changes != 0) {
+        dispatchStatusChanges(mLastStatus, changes);
+      }
+    }
+  };
+
+  private void dispatchStatusChanges(final MediaStatusSnapshot status, int changes) {
+    CastUtils.LOGD(TAG, "dispatchStatusChanges(): changes=" + Integer.toBinaryString(changes) + ", " + status);
+    if ((changes & MediaStatusSnapshot.CHANGED_PLAYBACK) != 0) {
+      int state = status.getPlayerState();
+      int idleReason = status.getIdleReason();
       boolean makeUiHidden = false;
-      if (mState == MediaStatus.PLAYER_STATE_PLAYING) {
-        System.out.println("status: playing");
+      if (state == MediaStatus.PLAYER_STATE_PLAYING) {
         updateRemoteControl(true);
-      } else if (mState == MediaStatus.PLAYER_STATE_PAUSED) {
-        System.out.println("status: paused");
+      } else if (state == MediaStatus.PLAYER_STATE_PAUSED) {
         updateRemoteControl(false);
-      } else if (mState == MediaStatus.PLAYER_STATE_IDLE) {
+      } else if (state == MediaStatus.PLAYER_STATE_IDLE) {
         updateRemoteControl(false);
-        if (mIdleReason == MediaStatus.IDLE_REASON_FINISHED) {
+        if (idleReason == MediaStatus.IDLE_REASON_FINISHED) {
           removeRemoteControlClient();
           makeUiHidden = true;
-        } else if (mIdleReason == MediaStatus.IDLE_REASON_ERROR) {
+        } else if (idleReason == MediaStatus.IDLE_REASON_ERROR) {
           // something bad happened on the cast device
           CastUtils.LOGD(TAG, "Player on the receiver has thrown an error");
           makeUiHidden = true;
           removeRemoteControlClient();
           onFailed(R.string.failed_receiver_player_error, NO_STATUS_CODE);
-        } else if (mIdleReason == MediaStatus.IDLE_REASON_CANCELED) {
-          makeUiHidden = !isRemoteStreamLive();
+        } else if (idleReason == MediaStatus.IDLE_REASON_CANCELED) {
+          try {
+            makeUiHidden = !isRemoteStreamLive();
+          } catch (TransientNetworkDisconnectionException e) {
+            CastUtils.LOGE(TAG, "Failed to get stream type due to network issues", e);
+          } catch (NoConnectionException e) {
+            CastUtils.LOGE(TAG, "Failed to get stream type due to network issues", e);
+          }
         }
-      } else if (mState == MediaStatus.PLAYER_STATE_BUFFERING) {
-        System.out.println("status: buffering");
-      } else {
-        System.out.println("status: unknown");
+      } else if (state != MediaStatus.PLAYER_STATE_BUFFERING) {
         makeUiHidden = true;
       }
       if (makeUiHidden) {
         stopNotificationService();
       }
       updateMiniControllersVisibility(!makeUiHidden);
-      updateMiniControllers();
-      for (IVideoCastConsumer consumer : mVideoConsumers) {
-        try {
+      if (changes == MediaStatusSnapshot.CHANGED_ALL) {
+        updateMiniControllers();
+      } else {
+        for (IMiniController controller : mMiniControllers) {
+          controller.setPlaybackStatus(state, idleReason);
+        }
+      }
+    }
+    if ((changes & (MediaStatusSnapshot.CHANGED_PLAYBACK | MediaStatusSnapshot.CHANGED_POSITION)) != 0) {
+      deliverPositionTick();
+      updatePositionTicker();
+      recordPlaybackProgress();
+      mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onRemoteMediaPlayerStatusUpdated", true) {
+        @Override
+        protected void deliver(IVideoCastConsumer consumer) {
           consumer.onRemoteMediaPlayerStatusUpdated();
-          consumer.onVolumeChanged(volume, isMute);
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "onRemoteMediaplayerStatusUpdated(): Failed to inform " + consumer, e);
         }
+      });
+    }
+    if ((changes & MediaStatusSnapshot.CHANGED_AUDIO) != 0) {
+      postVolumeChanged(status.getVolume(), status.isMute());
+    }
+  }
+
+  /*
+   * Forgets the last status, so that the first update of the next session is fanned out in full.
+   */
+  private void resetStatusSnapshot() {
+    if (null != mLastStatus) {
+      recordPlaybackProgress();
+    }
+    mLastStatus = null;
+    mPendingStatusChanges = 0;
+    mStatusDispatchScheduled = false;
+    mHandler.removeCallbacks(mStatusDispatcher);
+    mPositionAnchor = 0;
+    mPositionAnchorTime = 0;
+    mStreamDuration = 0;
+    mHandler.removeCallbacks(mPositionTicker);
+  }
+
+  /*************************************************************************/
+  /************** Position clock *******************************************/
+  /*************************************************************************/
+
+  /**
+   * Returns the position of the current media, in milliseconds, estimated from the last position
+   * that the receiver reported, the playback rate and the time elapsed since. Unlike
+   * {@link #getCurrentMediaPosition()}, this does not go through the media channel, so it is cheap
+   * enough to be called on every frame. Returns 0 if no media status has been received yet.
+   */
+  public long estimatedPosition() {
+    long position = mPositionAnchor;
+    if (mState == MediaStatus.PLAYER_STATE_PLAYING) {
+      position += (long) ((SystemClock.elapsedRealtime() - mPositionAnchorTime) * mPlaybackRate);
+    }
+    if (mStreamDuration > 0 && position > mStreamDuration) {
+      position = mStreamDuration;
+    }
+    return position;
+  }
+
+  /**
+   * Adds a listener for position ticks. The listener gets the current estimate right away, and then
+   * a tick about once per second while the media is playing and the UI is visible.
+   */
+  public void addPlaybackPositionListener(IPlaybackPositionListener listener) {
+    if (null != listener && mPositionListeners.add(listener)) {
+      if (mStreamDuration > 0) {
+        listener.onPlaybackPositionTick(estimatedPosition(), mStreamDuration);
       }
-    } catch (TransientNetworkDisconnectionException e) {
-      CastUtils.LOGE(TAG, "Failed to get volume state due to network issues", e);
-    } catch (NoConnectionException e) {
-      CastUtils.LOGE(TAG, "Failed to get volume state due to network issues", e);
+      updatePositionTicker();
+    }
+  }
+
+  public void removePlaybackPositionListener(IPlaybackPositionListener listener) {
+    if (null != listener && mPositionListeners.remove(listener)) {
+      updatePositionTicker();
+    }
+  }
+
+  private void anchorPosition(MediaStatus status) {
+    mPositionAnchor = status.getStreamPosition();
+    mPositionAnchorTime = SystemClock.elapsedRealtime();
+    mPlaybackRate = status.getPlaybackRate() > 0 ? status.getPlaybackRate() : 1;
+    mStreamDuration = mRemoteMediaPlayer.getStreamDuration();
+  }
+
+  /*
+   * Moves the position clock to where a seek is headed, so that the UI does not snap back to the
+   * old position until the receiver confirms the seek with a status update.
+   */
+  private void moveClockTo(long position) {
+    mPositionAnchor = position;
+    mPositionAnchorTime = SystemClock.elapsedRealtime();
+  }
+
+  private final Runnable mPositionTicker = new Runnable() {
+    @Override
+    public void run() {
+      deliverPositionTick();
+      updatePositionTicker();
+    }
+  };
+
+  /*
+   * Schedules the next tick on the next whole second of media time, or stops ticking if nobody
+   * would see it.
+   */
+  private void updatePositionTicker() {
+    mHandler.removeCallbacks(mPositionTicker);
+    if (mPositionListeners.isEmpty() || !mUiVisible || mState != MediaStatus.PLAYER_STATE_PLAYING ||
+        mStreamDuration <= 0) {
+      return;
+    }
+    long untilNextSecond = POSITION_TICK_MS - estimatedPosition() % POSITION_TICK_MS;
+    mHandler.postDelayed(mPositionTicker, Math.max(1, (long) (untilNextSecond / mPlaybackRate)));
+  }
+
+  /*
+   * Remembers in the session history what is playing and where, so that a later recovery of this
+   * session can show the position before the receiver reports it.
+   */
+  private void recordPlaybackProgress() {
+    String routeId = mSettings.getRouteId();
+    if (null == routeId || null == mRemoteMediaPlayer) {
+      return;
     }
+    MediaInfo info = mRemoteMediaPlayer.getMediaInfo();
+    if (null == info || (mState == MediaStatus.PLAYER_STATE_IDLE && mIdleReason == MediaStatus.IDLE_REASON_FINISHED)) {
+      mSessionHistory.onPlaybackProgress(routeId, null, 0, 0, false);
+    } else {
+      mSessionHistory.onPlaybackProgress(routeId, info.getContentId(), estimatedPosition(), mStreamDuration,
+          mState == MediaStatus.PLAYER_STATE_PLAYING);
+    }
+  }
 
+  /*
+   * Starts the position clock from the progress recorded for a session that is being joined, so that
+   * the UI has a position to show before the first status update arrives.
+   */
+  private void restorePlaybackProgress(String sessionId) {
+    SessionHistory.Entry entry = mSessionHistory.get(mSettings.getRouteId());
+    if (null == entry || !entry.getSessionId().equals(sessionId) || null == entry.getContentId() ||
+        entry.getDuration() <= 0) {
+      return;
+    }
+    long position = entry.getPosition();
+    if (entry.wasPlaying()) {
+      position += Math.max(0, System.currentTimeMillis() - entry.getUpdatedAt());
+    }
+    mPositionAnchor = Math.min(position, entry.getDuration());
+    mPositionAnchorTime = SystemClock.elapsedRealtime();
+    mStreamDuration = entry.getDuration();
+    CastUtils.LOGD(TAG, "restorePlaybackProgress(): resuming from " + mPositionAnchor + " of " + entry);
+    deliverPositionTick();
+  }
+
+  private void deliverPositionTick() {
+    if (mStreamDuration <= 0) {
+      return;
+    }
+    long position = estimatedPosition();
+    for (IPlaybackPositionListener listener : mPositionListeners) {
+      try {
+        listener.onPlaybackPositionTick(position, mStreamDuration);
+      } catch (Exception e) {
+        CastUtils.LOGE(TAG, "onPlaybackPositionTick(): Failed to inform " + listener, e);
+      }
+    }
   }
 
   /*
@@ -1329,14 +1616,13 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
    */
   public void onRemoteMediaPlayerMetadataUpdated() {
     CastUtils.LOGD(TAG, "onRemoteMediaPlayerMetadataUpdated() reached");
-    updateLockScreenMetadata();
-    for (IVideoCastConsumer consumer : mVideoConsumers) {
-      try {
+    updateMiniControllers();
+    mVideoConsumers.post(new ConsumerEventBus.Event<IVideoCastConsumer>("onRemoteMediaPlayerMetadataUpdated", true) {
+      @Override
+      protected void deliver(IVideoCastConsumer consumer) {
         consumer.onRemoteMediaPlayerMetadataUpdated();
-      } catch (Exception e) {
-        CastUtils.LOGE(TAG, "onRemoteMediaPlayerMetadataUpdated(): Failed to inform " + consumer, e);
       }
-    }
+    });
     updateLockScreenMetadata();
     try {
       updateLockScreenImage(getRemoteMediaInformation());
@@ -1395,64 +1681,68 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     if (null == info) {
       return;
     }
-    new Thread(new Runnable() {
+    int size = getLockScreenImageSize();
+    ArtworkCache.getInstance(mContext).load(mLockScreenArtworkTarget, getLockScreenImageUrl(info),
+        size, size, R.drawable.dummy_album_art, new ArtworkCache.Callback() {
+
       @Override
-      public void run() {
-        if (null == mRemoteControlClient) {
+      public void onArtworkLoaded(Bitmap bitmap) {
+        if (null == mRemoteControlClient || null == bitmap) {
           return;
         }
         try {
-          Bitmap bm = getBitmapForLockScreen(info);
-          if (null == bm) {
+          // RemoteControlClient recycles the artwork it is given once it is replaced, on every
+          // version, so it always gets a copy of its own rather than the bitmap shared through the
+          // cache; the copy is never retained, released or pooled
+          Bitmap.Config config = null != bitmap.getConfig() ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+          Bitmap artwork = bitmap.copy(config, false);
+          if (null == artwork) {
             return;
           }
           mRemoteControlClient.editMetadata(false).putBitmap(RemoteControlClient.MetadataEditor.
-              BITMAP_KEY_ARTWORK, bm).apply();
+              BITMAP_KEY_ARTWORK, artwork).apply();
         } catch (Exception e) {
           CastUtils.LOGD(TAG, "Failed to update lock screen image", e);
         }
       }
-    }).start();
+    });
   }
 
   /*
-   * Returns the {@link Bitmap} appropriate for the right size image for lock screen. In ICS and
-   * JB, the image shown on the lock screen is a small size bitmap but for KitKat, the image is a
-   * full-screen image so we need to separately handle these two cases.
+   * Returns the url of the image appropriate for the lock screen. In ICS and JB, the image shown on
+   * the lock screen is a small size bitmap but for KitKat, the image is a full-screen image so we
+   * need to separately handle these two cases.
    */
-  private Bitmap getBitmapForLockScreen(MediaInfo video) {
-    if (null == video) {
-      return null;
-    }
-    URL imgUrl = null;
+  private String getLockScreenImageUrl(MediaInfo video) {
     List<WebImage> images = video.getMetadata().getImages();
-    try {
-      if (Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2) {
-        if (images.size() > 1) {
-          imgUrl = new URL(images.get(1).getUrl().toString());
-        } else if (images.size() == 1) {
-          imgUrl = new URL(images.get(0).getUrl().toString());
-        }
-      } else if (!images.isEmpty()) {
-        imgUrl = new URL(images.get(0).getUrl().toString());
-      }
-    } catch (MalformedURLException e) {
-      CastUtils.LOGE(TAG, "Failed to get the url for images", e);
-    }
-    Bitmap bm = null;
-    if (null != imgUrl) {
-      try {
-        bm = BitmapFactory.decodeStream(imgUrl.openStream());
-      } catch (IOException e) {
-        CastUtils.LOGE(TAG, "Failed to decoded a bitmap for url: " + imgUrl, e);
+    if (Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      if (images.size() > 1) {
+        return images.get(1).getUrl().toString();
+      } else if (images.size() == 1) {
+        return images.get(0).getUrl().toString();
       }
+    } else if (!images.isEmpty()) {
+      return images.get(0).getUrl().toString();
     }
+    return null;
+  }
 
-    if (null == bm) {
-      bm = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.dummy_album_art);
-    }
+  /*
+   * Returns the edge length, in pixels, to decode lock screen art at. KitKat shows it full-screen;
+   * earlier versions show it in a panel no larger than half of the screen.
+   */
+  private int getLockScreenImageSize() {
+    int size = getFullScreenImageSize();
+    return Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2 ? size : size / 2;
+  }
 
-    return bm;
+  /*
+   * Returns the edge length, in pixels, of artwork shown full-screen in either orientation, as the
+   * cast controller and the KitKat lock screen do.
+   */
+  private int getFullScreenImageSize() {
+    DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+    return Math.max(metrics.widthPixels, metrics.heightPixels);
   }
 
   /*
@@ -1515,6 +1805,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   private void removeRemoteControlClient() {
     if (isFeatureEnabled(FEATURE_LOCKSCREEN)) {
       mAudioManager.abandonAudioFocus(null);
+      ArtworkCache.getInstance(mContext).cancel(mLockScreenArtworkTarget);
       if (null != mRemoteControlClient) {
         mAudioManager.unregisterRemoteControlClient(mRemoteControlClient);
         mRemoteControlClient = null;
@@ -1528,16 +1819,34 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   /**
    * Registers an {@link IVideoCastConsumer} interface with this class. Registered listeners will
    * be notified of changes to a variety of lifecycle and media status changes through the
-   * callbacks that the interface provides.
+   * callbacks that the interface provides. Callbacks are made on the main thread.
+   */
+  public void addVideoCastConsumer(IVideoCastConsumer listener) {
+    addVideoCastConsumer(listener, ConsumerEventBus.DeliveryPolicy.MAIN_THREAD);
+  }
+
+  /**
+   * Registers an {@link IVideoCastConsumer} that is called according to <code>policy</code>; for
+   * instance, a consumer that does slow work can ask for
+   * {@link ConsumerEventBus.DeliveryPolicy#BACKGROUND}, and one that only mirrors the latest state
+   * can ask for {@link ConsumerEventBus.DeliveryPolicy#COALESCED}.
    */
-  public synchronized void addVideoCastConsumer(IVideoCastConsumer listener) {
+  public synchronized void addVideoCastConsumer(IVideoCastConsumer listener,
+      ConsumerEventBus.DeliveryPolicy policy) {
     if (null != listener) {
       super.addBaseCastConsumer(listener);
-      mVideoConsumers.add(listener);
+      mVideoConsumers.register(listener, policy);
       CastUtils.LOGD(TAG, "Successfully added the new CastConsumer listener " + listener);
     }
   }
 
+  /**
+   * Returns a summary of how long consumer callbacks have taken, per event, for diagnostics.
+   */
+  public String dumpConsumerMetrics() {
+    return mVideoConsumers.dumpMetrics();
+  }
+
   /**
    * Unregisters an {@link IVideoCastConsumer}.
    */
@@ -1607,6 +1916,12 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
     stopNotificationService();
     detachMediaChannel();
     removeDataChannel();
+    if (null != mDataChannelSender) {
+      mDataChannelSender.clear();
+    }
+    if (null != mDataChannelRpc) {
+      mDataChannelRpc.cancelAll();
+    }
   }
 
   @Override
@@ -1629,6 +1944,7 @@ public class VideoCastManager extends BaseCastManager implements OnMiniControlle
   @Override
   public void onDisconnected() {
     super.onDisconnected();
+    resetStatusSnapshot();
     updateMiniControllersVisibility(false);
     stopNotificationService();
     removeRemoteControlClient();
@@ -0,0 +1,16 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.callbacks;
+
+/**
+ * Receives the estimated position of the remote media from the
+ * {@link com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager}. Ticks are delivered on
+ * the main thread, roughly once per second of playback, and only while the media is playing and
+ * some UI of the application is visible. A tick is also delivered right away when a listener is
+ * added and whenever the receiver reports a new position, for example after a seek.
+ */
+public interface IPlaybackPositionListener {
+
+  /**
+   * Called with the estimated stream position and the stream duration, both in milliseconds.
+   */
+  public void onPlaybackPositionTick(long position, long duration);
+}
@@ -0,0 +1,25 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.callbacks;
+
+import org.json.JSONObject;
+
+/**
+ * Receives the outcome of a request made through a
+ * {@link com.distantfuture.castcompanionlibrary.lib.cast.DataChannelRpc}. Exactly one of the
+ * methods is called for every request, on the main thread.
+ */
+public interface IRpcCallback {
+
+  /**
+   * Called with the reply of the receiver, which carries the same <code>requestId</code> as the
+   * request, and the time from sending the request to receiving the reply, in milliseconds.
+   */
+  public void onResponse(JSONObject response, long roundTripMillis);
+
+  /**
+   * Called if no reply will be delivered. <code>statusCode</code> is one of
+   * <code>CastStatusCodes</code>: <code>TIMEOUT</code> if the receiver did not reply in time,
+   * <code>CANCELED</code> if the request was cancelled or the device was disconnected, or the reason
+   * the request could not be sent.
+   */
+  public void onFailure(int statusCode);
+}
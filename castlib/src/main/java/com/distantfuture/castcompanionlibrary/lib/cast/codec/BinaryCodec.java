@@ -0,0 +1,438 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.codec;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sends messages in a compact tagged binary encoding, framed as Base64 so that it can travel as a
+ * string. A message starts with a format byte, followed by the tagged value of the message:
+ * <ul>
+ * <li><code>0</code> null, <code>1</code> false, <code>2</code> true
+ * <li><code>3</code> an integer, zigzag encoded as a varint
+ * <li><code>4</code> a double in 8 bytes, or <code>8</code> a double that is exactly a float, in 4
+ * bytes, both big endian
+ * <li><code>5</code> a string, as the varint length of its UTF-8 bytes followed by those bytes
+ * <li><code>6</code> an array, as its varint length followed by its values
+ * <li><code>7</code> an object, as its varint size followed by its keys and their values. A key
+ * that is new in the message is written as twice the length of its UTF-8 bytes, as a varint,
+ * followed by those bytes; a key that was written before is written as one more than twice its
+ * index among the keys of the message, which keeps arrays of similar objects small
+ * </ul>
+ * With deflate enabled, the bytes after the format byte are deflated whenever that makes the
+ * message smaller, which pays off for larger messages with repeated keys. The format byte tells
+ * which of the two a message is, so the decoder of either kind of codec reads both.
+ * <p/>
+ * An instance reuses its buffers and its deflater between messages. It is safe to share between
+ * threads, but encodes and decodes one message at a time.
+ */
+public class BinaryCodec implements MessageCodec {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int FORMAT_PLAIN = 1;
+  private static final int FORMAT_DEFLATED = 2;
+
+  private static final int TAG_NULL = 0;
+  private static final int TAG_FALSE = 1;
+  private static final int TAG_TRUE = 2;
+  private static final int TAG_INTEGER = 3;
+  private static final int TAG_DOUBLE = 4;
+  private static final int TAG_STRING = 5;
+  private static final int TAG_ARRAY = 6;
+  private static final int TAG_OBJECT = 7;
+  private static final int TAG_FLOAT = 8;
+
+  private static final int MAX_DEPTH = 64;
+  // inflated messages are refused beyond this, the Cast API carries no more than 64K anyway
+  private static final int MAX_INFLATED_LENGTH = 1024 * 1024;
+
+  private final boolean mDeflate;
+  private final Deflater mDeflater;
+  private final Inflater mInflater = new Inflater();
+  private byte[] mBuffer = new byte[1024];
+  private int mLength;
+  private byte[] mDeflated = new byte[1024];
+  private final Map<String, Integer> mWrittenKeys = new HashMap<String, Integer>();
+  private final List<String> mReadKeys = new ArrayList<String>();
+
+  private byte[] mInput;
+  private int mInputLength;
+  private int mPosition;
+
+  public BinaryCodec(boolean deflate) {
+    mDeflate = deflate;
+    mDeflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+  }
+
+  @Override
+  public String getName() {
+    return mDeflate ? "binary+deflate" : "binary";
+  }
+
+  @Override
+  public synchronized String encode(JSONObject message) {
+    mLength = 0;
+    mWrittenKeys.clear();
+    writeByte(FORMAT_PLAIN);
+    writeValue(message, 0);
+    if (mDeflate) {
+      int deflated = deflate();
+      if (deflated > 0) {
+        return Base64.encodeToString(mDeflated, 0, deflated, Base64.NO_WRAP);
+      }
+    }
+    return Base64.encodeToString(mBuffer, 0, mLength, Base64.NO_WRAP);
+  }
+
+  @Override
+  public synchronized JSONObject decode(String payload) throws JSONException {
+    byte[] data;
+    try {
+      data = Base64.decode(payload, Base64.NO_WRAP);
+    } catch (IllegalArgumentException e) {
+      throw new JSONException("Not a binary message");
+    }
+    if (data.length == 0) {
+      throw new JSONException("Empty message");
+    }
+    if (data[0] == FORMAT_PLAIN) {
+      mInput = data;
+      mInputLength = data.length;
+      mPosition = 1;
+    } else if (data[0] == FORMAT_DEFLATED) {
+      mInputLength = inflate(data);
+      mInput = mBuffer;
+      mPosition = 0;
+    } else {
+      throw new JSONException("Unknown message format: " + data[0]);
+    }
+    mReadKeys.clear();
+    try {
+      Object value = readValue(0);
+      if (!(value instanceof JSONObject)) {
+        throw new JSONException("Not an object: " + value);
+      }
+      return (JSONObject) value;
+    } finally {
+      mInput = null;
+    }
+  }
+
+  /*
+   * Deflates the encoded message into mDeflated, after a format byte. Returns the length of the
+   * result, or 0 if it would not be smaller than the message as it is.
+   */
+  private int deflate() {
+    if (mDeflated.length < mLength) {
+      mDeflated = new byte[Math.max(mLength, mDeflated.length * 2)];
+    }
+    mDeflater.reset();
+    mDeflater.setInput(mBuffer, 1, mLength - 1);
+    mDeflater.finish();
+    mDeflated[0] = FORMAT_DEFLATED;
+    int length = 1;
+    while (!mDeflater.finished()) {
+      if (length >= mLength) {
+        return 0;
+      }
+      length += mDeflater.deflate(mDeflated, length, mLength - length);
+    }
+    return length < mLength ? length : 0;
+  }
+
+  /*
+   * Inflates the message after the format byte into mBuffer and returns its length.
+   */
+  private int inflate(byte[] data) throws JSONException {
+    mInflater.reset();
+    mInflater.setInput(data, 1, data.length - 1);
+    int length = 0;
+    try {
+      while (!mInflater.finished()) {
+        if (length == mBuffer.length) {
+          if (length >= MAX_INFLATED_LENGTH) {
+            throw new JSONException("Message is too large");
+          }
+          mBuffer = Arrays.copyOf(mBuffer, length * 2);
+        }
+        int inflated = mInflater.inflate(mBuffer, length, mBuffer.length - length);
+        if (inflated == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+          throw new JSONException("Truncated message");
+        }
+        length += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new JSONException("Corrupt message: " + e.getMessage());
+    }
+    return length;
+  }
+
+  /*************************************************************************/
+  /************** Encoding *************************************************/
+  /*************************************************************************/
+
+  private void writeValue(Object value, int depth) {
+    if (depth > MAX_DEPTH) {
+      throw new IllegalArgumentException("Message is nested too deeply");
+    }
+    if (null == value || value == JSONObject.NULL) {
+      writeByte(TAG_NULL);
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+        value instanceof Byte) {
+      long n = ((Number) value).longValue();
+      writeByte(TAG_INTEGER);
+      writeVarLong((n << 1) ^ (n >> 63));
+    } else if (value instanceof Number) {
+      double d = ((Number) value).doubleValue();
+      float f = (float) d;
+      if (f == d) {
+        writeByte(TAG_FLOAT);
+        writeFixed(Float.floatToIntBits(f), 4);
+      } else {
+        writeByte(TAG_DOUBLE);
+        writeFixed(Double.doubleToLongBits(d), 8);
+      }
+    } else if (value instanceof String) {
+      writeByte(TAG_STRING);
+      writeString((String) value);
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      writeByte(TAG_ARRAY);
+      writeVarLong(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        writeValue(array.opt(i), depth + 1);
+      }
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      writeByte(TAG_OBJECT);
+      writeVarLong(object.length());
+      Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        writeKey(key);
+        writeValue(object.opt(key), depth + 1);
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot encode a " + value.getClass().getName());
+    }
+  }
+
+  private void ensureCapacity(int count) {
+    if (mLength + count > mBuffer.length) {
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + count));
+    }
+  }
+
+  private void writeByte(int b) {
+    ensureCapacity(1);
+    mBuffer[mLength++] = (byte) b;
+  }
+
+  private void writeVarLong(long n) {
+    ensureCapacity(10);
+    while ((n & ~0x7FL) != 0) {
+      mBuffer[mLength++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    mBuffer[mLength++] = (byte) n;
+  }
+
+  private void writeFixed(long bits, int count) {
+    ensureCapacity(count);
+    for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+      mBuffer[mLength++] = (byte) (bits >>> shift);
+    }
+  }
+
+  private void writeKey(String key) {
+    Integer index = mWrittenKeys.get(key);
+    if (null != index) {
+      writeVarLong(((long) index << 1) | 1);
+    } else {
+      mWrittenKeys.put(key, mWrittenKeys.size());
+      writeString(key, 1);
+    }
+  }
+
+  private void writeString(String s) {
+    writeString(s, 0);
+  }
+
+  /*
+   * Writes the UTF-8 bytes of s straight into the buffer, to avoid a byte array per string. The
+   * length is shifted left by lengthShift bits, which keys use to tell new keys from references.
+   */
+  private void writeString(String s, int lengthShift) {
+    int length = s.length();
+    int utf8Length = 0;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        utf8Length++;
+      } else if (c < 0x800) {
+        utf8Length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        utf8Length += 4;
+        i++;
+      } else {
+        utf8Length += 3;
+      }
+    }
+    writeVarLong((long) utf8Length << lengthShift);
+    ensureCapacity(utf8Length);
+    byte[] buffer = mBuffer;
+    int position = mLength;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    mLength = position;
+  }
+
+  /*************************************************************************/
+  /************** Decoding *************************************************/
+  /*************************************************************************/
+
+  private Object readValue(int depth) throws JSONException {
+    if (depth > MAX_DEPTH) {
+      throw new JSONException("Message is nested too deeply");
+    }
+    int tag = readByte();
+    switch (tag) {
+      case TAG_NULL:
+        return JSONObject.NULL;
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_INTEGER:
+        long zigzag = readVarLong();
+        long n = (zigzag >>> 1) ^ -(zigzag & 1);
+        if (n == (int) n) {
+          return (int) n;
+        }
+        return n;
+      case TAG_FLOAT:
+        return (double) Float.intBitsToFloat((int) readFixed(4));
+      case TAG_DOUBLE:
+        return Double.longBitsToDouble(readFixed(8));
+      case TAG_STRING:
+        return readString();
+      case TAG_ARRAY:
+        int length = readCount();
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++) {
+          array.put(readValue(depth + 1));
+        }
+        return array;
+      case TAG_OBJECT:
+        int size = readCount();
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < size; i++) {
+          String key = readKey();
+          object.put(key, readValue(depth + 1));
+        }
+        return object;
+      default:
+        throw new JSONException("Unknown tag " + tag + " at " + (mPosition - 1));
+    }
+  }
+
+  private int readByte() throws JSONException {
+    if (mPosition >= mInputLength) {
+      throw new JSONException("Truncated message");
+    }
+    return mInput[mPosition++] & 0xFF;
+  }
+
+  private long readVarLong() throws JSONException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new JSONException("Malformed varint at " + mPosition);
+  }
+
+  private long readFixed(int count) throws JSONException {
+    long bits = 0;
+    for (int i = 0; i < count; i++) {
+      bits = (bits << 8) | readByte();
+    }
+    return bits;
+  }
+
+  /*
+   * Reads a length or a size, which can never exceed the bytes that are left since every element
+   * takes at least one byte.
+   */
+  private int readCount() throws JSONException {
+    long count = readVarLong();
+    checkCount(count);
+    return (int) count;
+  }
+
+  private void checkCount(long count) throws JSONException {
+    if (count < 0 || count > mInputLength - mPosition) {
+      throw new JSONException("Bad length " + count + " at " + mPosition);
+    }
+  }
+
+  private String readKey() throws JSONException {
+    long n = readVarLong();
+    if ((n & 1) != 0) {
+      long index = n >>> 1;
+      if (index >= mReadKeys.size()) {
+        throw new JSONException("Bad key reference " + index + " at " + mPosition);
+      }
+      return mReadKeys.get((int) index);
+    }
+    String key = readUtf8(n >>> 1);
+    mReadKeys.add(key);
+    return key;
+  }
+
+  private String readString() throws JSONException {
+    return readUtf8(readVarLong());
+  }
+
+  private String readUtf8(long length) throws JSONException {
+    checkCount(length);
+    String s = new String(mInput, mPosition, (int) length, UTF_8);
+    mPosition += length;
+    return s;
+  }
+}
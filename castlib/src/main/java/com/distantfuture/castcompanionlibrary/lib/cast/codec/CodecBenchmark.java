@@ -0,0 +1,55 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.codec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A rough microbenchmark of {@link MessageCodec}s, to help choose the codec of a namespace for the
+ * messages an application actually sends. Each codec encodes and decodes a sample message many
+ * times, after a warm up, and the encoded size and the average time per message are reported. The
+ * benchmark runs on the calling thread, which should not be the main thread.
+ */
+public final class CodecBenchmark {
+
+  private CodecBenchmark() {
+  }
+
+  /**
+   * Compares JSON, binary and deflated binary on <code>sample</code>.
+   */
+  public static String run(JSONObject sample, int iterations) throws JSONException {
+    return run(sample, iterations, new JsonCodec(), new BinaryCodec(false), new BinaryCodec(true));
+  }
+
+  /**
+   * Returns a human readable report of how the <code>codecs</code> fare on <code>sample</code>.
+   */
+  public static String run(JSONObject sample, int iterations, MessageCodec... codecs) throws JSONException {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("iterations must be positive");
+    }
+    StringBuilder sb = new StringBuilder();
+    // keeps the work from being optimized away
+    long checksum = 0;
+    for (MessageCodec codec : codecs) {
+      String encoded = codec.encode(sample);
+      for (int i = 0; i < iterations / 10 + 1; i++) {
+        checksum += codec.decode(codec.encode(sample)).length();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        checksum += codec.encode(sample).length();
+      }
+      long encodeNanos = (System.nanoTime() - start) / iterations;
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        checksum += codec.decode(encoded).length();
+      }
+      long decodeNanos = (System.nanoTime() - start) / iterations;
+      sb.append(codec.getName()).append(": ").append(encoded.length()).append(" chars, encode ")
+          .append(encodeNanos / 1000f).append("us, decode ").append(decodeNanos / 1000f).append("us\n");
+    }
+    sb.append("(checksum ").append(checksum).append(")\n");
+    return sb.toString();
+  }
+}
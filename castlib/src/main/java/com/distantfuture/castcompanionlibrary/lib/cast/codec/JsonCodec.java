@@ -0,0 +1,25 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.codec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sends messages as JSON text, which is what receivers expect unless told otherwise.
+ */
+public class JsonCodec implements MessageCodec {
+
+  @Override
+  public String getName() {
+    return "json";
+  }
+
+  @Override
+  public String encode(JSONObject message) {
+    return message.toString();
+  }
+
+  @Override
+  public JSONObject decode(String payload) throws JSONException {
+    return new JSONObject(payload);
+  }
+}
@@ -0,0 +1,26 @@
+package com.distantfuture.castcompanionlibrary.lib.cast.codec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Turns the messages of a custom namespace, modelled as JSON objects, into the strings that the
+ * Cast API carries, and back. The receiver has to use the same encoding.
+ */
+public interface MessageCodec {
+
+  /**
+   * A short name for logs and benchmarks.
+   */
+  public String getName();
+
+  /**
+   * @throws IllegalArgumentException If the message holds a value that the codec cannot encode
+   */
+  public String encode(JSONObject message);
+
+  /**
+   * @throws JSONException If <code>payload</code> is not a message in this encoding
+   */
+  public JSONObject decode(String payload) throws JSONException;
+}
@@ -3,7 +3,6 @@ package com.distantfuture.castcompanionlibrary.lib.cast.dialog.video;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
@@ -20,13 +19,12 @@ import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.VideoCastConsum
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.CastException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.NoConnectionException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetworkDisconnectionException;
+import com.distantfuture.castcompanionlibrary.lib.utils.ArtworkCache;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
 import com.google.android.gms.cast.MediaStatus;
 
-import java.net.URL;
-
 /**
  * A custom {@link MediaRouteControllerDialog} that provides an album art, a play/pause button and
  * the ability to take user to the target activity when the album art is tapped.
@@ -42,6 +40,7 @@ public class VideoMediaRouteControllerDialog extends MediaRouteControllerDialog
   private TextView mEmptyText;
   private ProgressBar mLoading;
   private Uri mIconUri;
+  private Bitmap mIconBitmap;
   private VideoCastManager mCastManager;
   protected int mState;
   private VideoCastConsumerImpl castConsumerImpl;
@@ -146,32 +145,21 @@ public class VideoMediaRouteControllerDialog extends MediaRouteControllerDialog
       return;
     }
     mIconUri = uri;
-    new Thread(new Runnable() {
-      Bitmap bm = null;
+    int size = mContext.getResources().getDimensionPixelSize(R.dimen.artwork_thumbnail_size);
+    ArtworkCache.getInstance(mContext).load(mIcon, null == uri ? null : uri.toString(), size, size,
+        R.drawable.video_placeholder_200x200, new ArtworkCache.Callback() {
 
       @Override
-      public void run() {
-        try {
-          URL imgUrl = new URL(mIconUri.toString());
-          bm = BitmapFactory.decodeStream(imgUrl.openStream());
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-              mIconUri + ", using the default one", e);
-          bm = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.video_placeholder_200x200);
+      public void onArtworkLoaded(Bitmap bitmap) {
+        if (!mClosed) {
+          ArtworkCache artworkCache = ArtworkCache.getInstance(mContext);
+          artworkCache.retain(bitmap);
+          mIcon.setImageBitmap(bitmap);
+          artworkCache.release(mIconBitmap);
+          mIconBitmap = bitmap;
         }
-        if (mClosed) {
-          return;
-        }
-        mIcon.post(new Runnable() {
-
-          @Override
-          public void run() {
-            mIcon.setImageBitmap(bm);
-          }
-        });
-
       }
-    }).start();
+    });
   }
 
   private void updatePlayPauseState(int state) {
@@ -245,6 +233,12 @@ public class VideoMediaRouteControllerDialog extends MediaRouteControllerDialog
     if (null != castConsumerImpl) {
       mCastManager.removeVideoCastConsumer(castConsumerImpl);
     }
+    if (null != mIcon) {
+      ArtworkCache artworkCache = ArtworkCache.getInstance(mContext);
+      artworkCache.cancel(mIcon);
+      artworkCache.release(mIconBitmap);
+      mIconBitmap = null;
+    }
     mClosed = true;
   }
 
@@ -17,6 +17,7 @@
 package com.distantfuture.castcompanionlibrary.lib.cast.player;
 
 import android.graphics.Bitmap;
+import android.graphics.Point;
 
 import com.distantfuture.castcompanionlibrary.lib.utils.MiniController.OnMiniControllerChangedListener;
 import com.google.android.gms.cast.MediaStatus;
@@ -28,6 +29,12 @@ public interface IVideoCastController {
    */
   public void setImage(Bitmap bitmap);
 
+  /**
+   * Returns the size, in pixels, of the area the album art is drawn in, so it can be decoded no
+   * larger than needed
+   */
+  public Point getImageSize();
+
   /**
    * Sets the title
    */
@@ -19,10 +19,12 @@ package com.distantfuture.castcompanionlibrary.lib.cast.player;
 import android.app.Activity;
 import android.app.FragmentManager;
 import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -40,6 +42,7 @@ import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.CastException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.NoConnectionException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetworkDisconnectionException;
+import com.distantfuture.castcompanionlibrary.lib.utils.CastSettings;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaStatus;
@@ -84,7 +87,7 @@ public class VideoCastControllerActivity extends FragmentActivity implements IVi
     super.onCreate(savedInstanceState);
     setContentView(R.layout.cast_activity);
     loadAndSetupViews();
-    mVolumeIncrement = CastUtils.getFloatFromPreference(this, VideoCastManager.PREFS_KEY_VOLUME_INCREMENT);
+    mVolumeIncrement = CastSettings.getInstance(this).getVolumeIncrement();
     try {
       mCastManager = VideoCastManager.getInstance(this);
     } catch (CastException e) {
@@ -317,6 +320,14 @@ public class VideoCastControllerActivity extends FragmentActivity implements IVi
     }
   }
 
+  @Override
+  public Point getImageSize() {
+    // the artwork is the page background, so size it for the screen in either orientation
+    DisplayMetrics metrics = getResources().getDisplayMetrics();
+    int size = Math.max(metrics.widthPixels, metrics.heightPixels);
+    return new Point(size, size);
+  }
+
   @Override
   public void setLine1(String text) {
     mLine1.setText(text);
@@ -23,8 +23,7 @@ import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
+import android.graphics.Point;
 import android.os.Bundle;
 import android.os.Handler;
 import android.view.View;
@@ -32,18 +31,18 @@ import android.widget.SeekBar;
 
 import com.distantfuture.castcompanionlibrary.lib.R;
 import com.distantfuture.castcompanionlibrary.lib.cast.VideoCastManager;
+import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.IPlaybackPositionListener;
 import com.distantfuture.castcompanionlibrary.lib.cast.callbacks.VideoCastConsumerImpl;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.CastException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.NoConnectionException;
 import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetworkDisconnectionException;
+import com.distantfuture.castcompanionlibrary.lib.utils.ArtworkCache;
 import com.distantfuture.castcompanionlibrary.lib.utils.CastUtils;
+import com.distantfuture.castcompanionlibrary.lib.utils.UiTaskScheduler;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
 import com.google.android.gms.cast.MediaStatus;
 
-import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * A fragment that provides a mechanism to retain the state and other needed objects for
@@ -64,16 +63,16 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
   private VideoCastManager mCastManager;
   private IMediaAuthService mMediaAuthService;
   private Thread mAuthThread;
-  private Timer mMediaAuthTimer;
+  private volatile UiTaskScheduler.Token mMediaAuthTimeout;
   private Handler mHandler;
   protected boolean mAuthSuccess = true;
   private IVideoCastController mCastController;
-  private AsyncTask<String, Void, Bitmap> mImageAsyncTask;
-  private Timer mSeekbarTimer;
+  private final SeekbarUpdater mSeekbarUpdater = new SeekbarUpdater();
   private int mPlaybackState;
   private MyCastConsumer mCastConsumer;
   private OverallState mOverallState = OverallState.UNKNOWN;
   private UrlAndBitmap mUrlAndBitmap;
+  private ArtworkCache mArtworkCache;
   private static boolean sDialogCanceled = false;
   private boolean mIsFresh;
 
@@ -147,17 +146,27 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
     mAuthThread.start();
 
     // start a timeout timer; we don't want authorization process to take too long
-    mMediaAuthTimer = new Timer();
-    mMediaAuthTimer.schedule(new MediaAuthServiceTimerTask(mAuthThread), authService.getTimeout());
+    mMediaAuthTimeout = UiTaskScheduler.getInstance()
+        .schedule(new MediaAuthTimeoutTask(mAuthThread), authService.getTimeout());
   }
 
   /*
-   * A TimerTask that will be called when the timeout timer expires
+   * May be called from the authorization thread
    */
-  class MediaAuthServiceTimerTask extends TimerTask {
+  private void cancelMediaAuthTimeout() {
+    UiTaskScheduler.Token timeout = mMediaAuthTimeout;
+    if (null != timeout) {
+      timeout.cancel();
+    }
+  }
+
+  /*
+   * A task that will be run on the main thread when the authorization times out
+   */
+  class MediaAuthTimeoutTask implements Runnable {
     private final Thread mThread;
 
-    public MediaAuthServiceTimerTask(Thread thread) {
+    public MediaAuthTimeoutTask(Thread thread) {
       this.mThread = thread;
     }
 
@@ -166,19 +175,12 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
       if (null != mThread) {
         CastUtils.LOGD(TAG, "Timer is expired, going to interrupt the thread");
         mThread.interrupt();
-        mHandler.post(new Runnable() {
-
-          @Override
-          public void run() {
-            mCastController.showLoading(false);
-            showErrorDialog(getString(R.string.failed_authorization_timeout));
-            mAuthSuccess = false;
-            if (null != mMediaAuthService && mMediaAuthService.getStatus() == MediaAuthStatus.PENDING) {
-              mMediaAuthService.abort(MediaAuthStatus.ABORT_TIMEOUT);
-            }
-          }
-        });
-
+        mCastController.showLoading(false);
+        showErrorDialog(getString(R.string.failed_authorization_timeout));
+        mAuthSuccess = false;
+        if (null != mMediaAuthService && mMediaAuthService.getStatus() == MediaAuthStatus.PENDING) {
+          mMediaAuthService.abort(MediaAuthStatus.ABORT_TIMEOUT);
+        }
       }
     }
 
@@ -225,39 +227,14 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
 
   }
 
-  private class UpdateSeekbarTask extends TimerTask {
+  private class SeekbarUpdater implements IPlaybackPositionListener {
 
     @Override
-    public void run() {
-      mHandler.post(new Runnable() {
-
-        @Override
-        public void run() {
-          int currentPos = 0;
-          if (mPlaybackState == MediaStatus.PLAYER_STATE_BUFFERING) {
-            return;
-          }
-          if (!mCastManager.isConnected()) {
-            return;
-          }
-          try {
-            double duration = mCastManager.getMediaDuration();
-            if (duration > 0) {
-              try {
-                currentPos = (int) mCastManager.getCurrentMediaPosition();
-                mCastController.updateSeekbar(currentPos, (int) duration);
-              } catch (Exception e) {
-                CastUtils.LOGE(TAG, "Failed to get current media position");
-              }
-            }
-          } catch (TransientNetworkDisconnectionException e) {
-            CastUtils.LOGE(TAG, "Failed to update the progress bar due to network issues", e);
-          } catch (NoConnectionException e) {
-            CastUtils.LOGE(TAG, "Failed to update the progress bar due to network issues", e);
-          }
-
-        }
-      });
+    public void onPlaybackPositionTick(long position, long duration) {
+      if (mPlaybackState == MediaStatus.PLAYER_STATE_BUFFERING) {
+        return;
+      }
+      mCastController.updateSeekbar((int) position, (int) duration);
     }
   }
 
@@ -284,21 +261,19 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
       mCastController.closeActivity();
     }
     updateMetadata();
-    restartTrickplayTimer();
+    startSeekbarUpdates();
   }
 
-  private void stopTrickplayTimer() {
-    CastUtils.LOGD(TAG, "Stopped TrickPlay Timer");
-    if (null != mSeekbarTimer) {
-      mSeekbarTimer.cancel();
+  private void stopSeekbarUpdates() {
+    CastUtils.LOGD(TAG, "Stopped seekbar updates");
+    if (null != mCastManager) {
+      mCastManager.removePlaybackPositionListener(mSeekbarUpdater);
     }
   }
 
-  private void restartTrickplayTimer() {
-    stopTrickplayTimer();
-    mSeekbarTimer = new Timer();
-    mSeekbarTimer.scheduleAtFixedRate(new UpdateSeekbarTask(), 100, 1000);
-    CastUtils.LOGD(TAG, "Restarted TrickPlay Timer");
+  private void startSeekbarUpdates() {
+    mCastManager.addPlaybackPositionListener(mSeekbarUpdater);
+    CastUtils.LOGD(TAG, "Started seekbar updates");
   }
 
   private void updateOverallState() {
@@ -405,7 +380,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
   @Override
   public void onDestroy() {
     CastUtils.LOGD(TAG, "onDestroy()");
-    stopTrickplayTimer();
+    stopSeekbarUpdates();
     cleanup();
     super.onDestroy();
   }
@@ -450,45 +425,39 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
   }
 
   /*
-   * Gets the image at the given url and populates the image view with that. It tries to cache the
-   * image to avoid unnecessary network calls.
+   * Gets the image at the given url and populates the image view with that. Images come from the
+   * shared {@link ArtworkCache}, so artwork already fetched for the notification, lock screen or
+   * mini controller is not downloaded again.
    */
   private void showImage(final String url) {
-    if (null != mImageAsyncTask) {
-      mImageAsyncTask.cancel(true);
+    if (null == mArtworkCache) {
+      mArtworkCache = ArtworkCache.getInstance(getActivity());
     }
     if (null != mUrlAndBitmap && mUrlAndBitmap.isMatch(url)) {
       // we can reuse mBitmap
+      mArtworkCache.cancel(this);
       mCastController.setImage(mUrlAndBitmap.mBitmap);
       return;
     }
-    mUrlAndBitmap = null;
-    mImageAsyncTask = new AsyncTask<String, Void, Bitmap>() {
-
-      @Override
-      protected Bitmap doInBackground(String... params) {
-        String uri = params[0];
-        try {
-          URL imgUrl = new URL(uri);
-          return BitmapFactory.decodeStream(imgUrl.openStream());
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "Failed to load the image with mUrl: " + uri, e);
-        }
-        return null;
-      }
+    Point size = mCastController.getImageSize();
+    mArtworkCache.load(this, url, size.x, size.y, 0, new ArtworkCache.Callback() {
 
       @Override
-      protected void onPostExecute(Bitmap bitmap) {
+      public void onArtworkLoaded(Bitmap bitmap) {
         if (null != bitmap) {
+          UrlAndBitmap previous = mUrlAndBitmap;
+          mArtworkCache.retain(bitmap);
           mUrlAndBitmap = new UrlAndBitmap();
           mUrlAndBitmap.mBitmap = bitmap;
           mUrlAndBitmap.mUrl = url;
           mCastController.setImage(bitmap);
+          // the old background is no longer shown, so its memory can go to the next poster
+          if (null != previous) {
+            mArtworkCache.release(previous.mBitmap);
+          }
         }
       }
-    };
-
-    mImageAsyncTask.execute(url);
+    });
   }
 
   /*
@@ -550,7 +519,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
       } else if (mPlaybackState == MediaStatus.PLAYER_STATE_PAUSED) {
         mCastManager.seek(seekBar.getProgress());
       }
-      restartTrickplayTimer();
+      startSeekbarUpdates();
     } catch (Exception e) {
       CastUtils.LOGE(TAG, "Failed to complete seek", e);
       mCastController.closeActivity();
@@ -559,7 +528,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
 
   @Override
   public void onStartTrackingTouch(SeekBar seekBar) {
-    stopTrickplayTimer();
+    stopSeekbarUpdates();
 
   }
 
@@ -578,7 +547,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
       case MediaStatus.PLAYER_STATE_PAUSED:
         mCastManager.play();
         mPlaybackState = MediaStatus.PLAYER_STATE_BUFFERING;
-        restartTrickplayTimer();
+        startSeekbarUpdates();
         break;
       case MediaStatus.PLAYER_STATE_PLAYING:
         mCastManager.pause();
@@ -591,7 +560,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
           mCastManager.loadMedia(mSelectedMedia, true, 0);
         }
         mPlaybackState = MediaStatus.PLAYER_STATE_BUFFERING;
-        restartTrickplayTimer();
+        startSeekbarUpdates();
         break;
       default:
         break;
@@ -620,9 +589,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
     if (status == MediaAuthStatus.RESULT_AUTHORIZED && mAuthSuccess) {
       // successful authorization
       mMediaAuthService = null;
-      if (null != mMediaAuthTimer) {
-        mMediaAuthTimer.cancel();
-      }
+      cancelMediaAuthTimeout();
       mSelectedMedia = info;
       mHandler.post(new Runnable() {
 
@@ -633,9 +600,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
         }
       });
     } else {
-      if (null != mMediaAuthTimer) {
-        mMediaAuthTimer.cancel();
-      }
+      cancelMediaAuthTimeout();
       mHandler.post(new Runnable() {
         @Override
         public void run() {
@@ -649,9 +614,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
 
   @Override
   public void onFailure(final String failureMessage) {
-    if (null != mMediaAuthTimer) {
-      mMediaAuthTimer.cancel();
-    }
+    cancelMediaAuthTimeout();
     mHandler.post(new Runnable() {
 
       @Override
@@ -682,9 +645,7 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
    */
   private void cleanup() {
     IMediaAuthService authService = mCastManager.getMediaAuthService();
-    if (null != mMediaAuthTimer) {
-      mMediaAuthTimer.cancel();
-    }
+    cancelMediaAuthTimeout();
     if (null != mAuthThread) {
       mAuthThread = null;
     }
@@ -698,6 +659,12 @@ public class VideoCastControllerFragment extends Fragment implements OnVideoCast
     if (null != mHandler) {
       mHandler.removeCallbacksAndMessages(null);
     }
+    if (null != mArtworkCache) {
+      mArtworkCache.cancel(this);
+      if (null != mUrlAndBitmap) {
+        mArtworkCache.release(mUrlAndBitmap.mBitmap);
+      }
+    }
     if (null != mUrlAndBitmap) {
       mUrlAndBitmap.mBitmap = null;
     }
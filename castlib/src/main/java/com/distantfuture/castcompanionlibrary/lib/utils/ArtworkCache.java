@@ -0,0 +1,770 @@
+package com.distantfuture.castcompanionlibrary.lib.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The image pipeline shared by every piece of castlib that shows artwork: the mini controller, the
+ * route controller dialog, the notification, the lock screen and the full-screen cast controller.
+ * A decoded poster is kept in a memory cache bounded by byte size and the encoded image is kept in
+ * a disk cache, so a media change downloads and decodes each image once no matter how many of
+ * those consumers ask for it.
+ * <p/>
+ * Callers pass the size, in pixels, of the view the artwork is shown in. Images are decoded with
+ * the largest power-of-two <code>inSampleSize</code> that still covers that size, so a 68dp icon
+ * does not pay for a full-resolution poster; opaque images bound for small targets, or for any
+ * target on a low-RAM device, are decoded as {@link Bitmap.Config#RGB_565}.
+ * <p/>
+ * Bitmaps are reference counted: the memory cache holds one reference, and every consumer that
+ * keeps a bitmap on screen past its callback holds one through {@link #retain(Bitmap)} until it
+ * calls {@link #release(Bitmap)}. A bitmap nobody references any more goes to a
+ * {@link BitmapPool} and the next decode reuses its memory through <code>inBitmap</code>, so
+ * moving from one episode to the next does not allocate a fresh set of large bitmaps. A bitmap
+ * from the cache must therefore never be recycled, nor handed to anything that may recycle it, such
+ * as a <code>RemoteControlClient</code>; give those a copy instead.
+ * <p/>
+ * Views and other targets load artwork with {@link #load(Object, String, int, int, int, Callback)},
+ * which runs on a small shared executor. Only the latest request for a given target is kept: a
+ * request for the url a target is already waiting on is coalesced into it, while a request for a
+ * different url cancels the pending one, so results can never land out of order. Targets that
+ * request the same image at the same size share a single fetch and decode.
+ * <p/>
+ * {@link #prefetch(String)} warms the cache ahead of need, for example with the large artwork of
+ * the rows a list is showing. Prefetches run one at a time behind the regular loads, only the most
+ * recent few are kept queued, and they stop once a per-minute download budget is spent. A list
+ * should only prefetch once it stops scrolling, and {@link #cancelPrefetches()} the rest when it
+ * starts again.
+ * <p/>
+ * {@link #getBitmap(String, int, int)} blocks on the network and must only be called off the main
+ * thread.
+ */
+public class ArtworkCache {
+
+  private static final String TAG = CastUtils.makeLogTag(ArtworkCache.class);
+  private static final String DISK_CACHE_DIR = "ccl_artwork";
+  private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+  private static final int MEMORY_CACHE_FRACTION = 8;
+  private static final int BITMAP_POOL_FRACTION = 16;
+  private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+  private static final int READ_TIMEOUT_MS = 15 * 1000;
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int SMALL_TARGET_PX = 256;
+  private static final int MAX_PARALLEL_FETCHES = 2;
+  private static final int MAX_QUEUED_PREFETCHES = 8;
+  private static final long PREFETCH_BUDGET_BYTES = 8 * 1024 * 1024;
+  private static final long PREFETCH_BUDGET_WINDOW_MS = 60 * 1000;
+
+  private static final ThreadPoolExecutor sExecutor;
+  private static final ThreadPoolExecutor sPrefetchExecutor;
+  private static ArtworkCache sInstance;
+
+  static {
+    sExecutor = new ThreadPoolExecutor(MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "Artwork #" + mCount.incrementAndGet());
+      }
+    });
+    sExecutor.allowCoreThreadTimeOut(true);
+
+    // when the queue is full the oldest prefetch that does not decode makes room: it is the least
+    // likely to be needed. Prefetches that decode are for the item about to be shown, so they only
+    // make room for each other
+    sPrefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "Artwork prefetch");
+      }
+    }, new RejectedExecutionHandler() {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        for (Iterator<Runnable> it = executor.getQueue().iterator(); it.hasNext(); ) {
+          Runnable queued = it.next();
+          if (queued instanceof Prefetch && !((Prefetch) queued).mDecode) {
+            it.remove();
+            ((Prefetch) queued).drop();
+            executor.execute(r);
+            return;
+          }
+        }
+        if (r instanceof Prefetch && !((Prefetch) r).mDecode) {
+          // the queue is all decodes, which outrank this one
+          ((Prefetch) r).drop();
+          return;
+        }
+        Runnable oldest = executor.getQueue().poll();
+        if (oldest instanceof Prefetch) {
+          ((Prefetch) oldest).drop();
+        }
+        executor.execute(r);
+      }
+    });
+    sPrefetchExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Receives the result of {@link #load(Object, String, int, int, int, Callback)} on the main
+   * thread. <code>bitmap</code> is <code>null</code> only if the image could not be loaded and no
+   * fallback was given. It is only guaranteed to stay valid during the call; consumers that keep
+   * it must {@link #retain(Bitmap)} it.
+   */
+  public interface Callback {
+    public void onArtworkLoaded(Bitmap bitmap);
+  }
+
+  private final Resources mResources;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Map<Object, Request> mRequests = new HashMap<Object, Request>();
+  private final Map<String, FutureTask<Bitmap>> mInFlight = new HashMap<String, FutureTask<Bitmap>>();
+  private final Set<String> mPrefetching = new HashSet<String>();
+  private long mPrefetchWindowStart;
+  private long mPrefetchBytes;
+  private final LruCache<String, Bitmap> mMemoryCache;
+  private final Map<Bitmap, Integer> mRefs = new IdentityHashMap<Bitmap, Integer>();
+  private final BitmapPool mBitmapPool;
+  private final File mDiskDir;
+  private final boolean mLowRam;
+  private final Object mDiskLock = new Object();
+  private long mDiskSize = -1;
+
+  private ArtworkCache(Context context) {
+    ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+    mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap value) {
+        return BitmapPool.sizeOf(value);
+      }
+
+      @Override
+      protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        release(oldValue);
+      }
+    };
+    mBitmapPool = new BitmapPool(am.getMemoryClass() * 1024 * 1024 / BITMAP_POOL_FRACTION);
+    mDiskDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    mResources = context.getResources();
+    mLowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && am.isLowRamDevice();
+    CastUtils.LOGD(TAG, "Artwork cache created, memory limit: " + maxBytes + " bytes");
+  }
+
+  public static synchronized ArtworkCache getInstance(Context context) {
+    if (null == sInstance) {
+      sInstance = new ArtworkCache(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  /**
+   * Returns the bitmap for <code>url</code> decoded for a <code>width</code> by
+   * <code>height</code> target if it is already in memory, or <code>null</code>. Safe to call on
+   * the main thread. The bitmap is retained for the caller, who must {@link #release(Bitmap)} it.
+   */
+  public Bitmap getCachedBitmap(String url, int width, int height) {
+    if (null == url) {
+      return null;
+    }
+    return getRetained(memoryKey(url, width, height));
+  }
+
+  /**
+   * Takes a reference to <code>bitmap</code> so that it is not reused while it is still shown.
+   */
+  public void retain(Bitmap bitmap) {
+    if (null == bitmap) {
+      return;
+    }
+    synchronized (mRefs) {
+      Integer count = mRefs.get(bitmap);
+      mRefs.put(bitmap, null == count ? 1 : count + 1);
+    }
+  }
+
+  /**
+   * Drops a reference taken with {@link #retain(Bitmap)}. Once nothing references a bitmap, its
+   * memory may be handed to the next decode.
+   */
+  public void release(Bitmap bitmap) {
+    if (null == bitmap) {
+      return;
+    }
+    synchronized (mRefs) {
+      Integer count = mRefs.get(bitmap);
+      if (null == count) {
+        return;
+      }
+      if (count > 1) {
+        mRefs.put(bitmap, count - 1);
+        return;
+      }
+      mRefs.remove(bitmap);
+    }
+    mBitmapPool.put(bitmap);
+  }
+
+  /*
+   * Retains a bitmap only if it is still referenced, i.e. it has not been handed to the pool.
+   */
+  private boolean tryRetain(Bitmap bitmap) {
+    synchronized (mRefs) {
+      Integer count = mRefs.get(bitmap);
+      if (null == count) {
+        return false;
+      }
+      mRefs.put(bitmap, count + 1);
+      return true;
+    }
+  }
+
+  private Bitmap getRetained(String key) {
+    Bitmap bitmap = mMemoryCache.get(key);
+    return null != bitmap && tryRetain(bitmap) ? bitmap : null;
+  }
+
+  private void putInMemory(String key, Bitmap bitmap) {
+    retain(bitmap);
+    mMemoryCache.put(key, bitmap);
+  }
+
+  /**
+   * Returns the bitmap for <code>url</code> decoded for a <code>width</code> by
+   * <code>height</code> target, looking in memory, then on disk and finally on the network. A
+   * size of 0 or less decodes the image at full resolution. Returns <code>null</code> if the image
+   * could not be fetched or decoded. The bitmap is retained for the caller, who must
+   * {@link #release(Bitmap)} it.
+   */
+  public Bitmap getBitmap(final String url, final int width, final int height) {
+    if (null == url) {
+      return null;
+    }
+    final String key = memoryKey(url, width, height);
+    Bitmap bitmap = getRetained(key);
+    if (null != bitmap) {
+      return bitmap;
+    }
+    FutureTask<Bitmap> task;
+    boolean owner = false;
+    synchronized (mInFlight) {
+      task = mInFlight.get(key);
+      if (null == task) {
+        task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+          @Override
+          public Bitmap call() {
+            return fetch(url, width, height, key);
+          }
+        });
+        mInFlight.put(key, task);
+        owner = true;
+      }
+    }
+    if (owner) {
+      try {
+        task.run();
+      } finally {
+        synchronized (mInFlight) {
+          mInFlight.remove(key);
+        }
+      }
+    }
+    try {
+      bitmap = task.get();
+      if (owner || null == bitmap || tryRetain(bitmap)) {
+        // the owner's reference was taken by fetch()
+        return bitmap;
+      }
+      // the shared result was already released and pooled, so decode it again
+      return getBitmap(url, width, height);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      CastUtils.LOGE(TAG, "getBitmap(): Failed to load the image for url: " + url, e);
+      return null;
+    }
+  }
+
+  /**
+   * Loads the artwork at <code>url</code> for <code>target</code> in the background and hands it to
+   * <code>callback</code> on the main thread, decoding <code>fallbackResId</code> instead if the
+   * image cannot be loaded (pass 0 for no fallback). Any earlier request for <code>target</code>
+   * that is still pending for a different url is cancelled. Must be called on the main thread.
+   */
+  public void load(Object target, String url, int width, int height, int fallbackResId,
+      Callback callback) {
+    Bitmap bitmap = getCachedBitmap(url, width, height);
+    if (null != bitmap) {
+      cancel(target);
+      try {
+        callback.onArtworkLoaded(bitmap);
+      } finally {
+        release(bitmap);
+      }
+      return;
+    }
+    String key = null == url ? null : memoryKey(url, width, height);
+    synchronized (mRequests) {
+      Request pending = mRequests.get(target);
+      if (null != pending) {
+        if (null != key && key.equals(pending.mKey)) {
+          pending.mCallback = callback;
+          return;
+        }
+        pending.cancel();
+      }
+      Request request = new Request(target, url, key, width, height, fallbackResId, callback);
+      mRequests.put(target, request);
+      sExecutor.execute(request.mFuture);
+    }
+  }
+
+  /**
+   * Cancels the pending request for <code>target</code>, if any; its callback will not be called.
+   */
+  public void cancel(Object target) {
+    synchronized (mRequests) {
+      Request pending = mRequests.remove(target);
+      if (null != pending) {
+        pending.cancel();
+      }
+    }
+  }
+
+  /**
+   * Downloads <code>url</code> into the disk cache in the background, if it is not there already.
+   */
+  public void prefetch(String url) {
+    prefetch(url, 0, 0, false);
+  }
+
+  /**
+   * Like {@link #prefetch(String)}, but also decodes the image into memory for a
+   * <code>width</code> by <code>height</code> target, so that it can be shown without any wait.
+   * Meant for the one item about to be shown, not for whole lists.
+   */
+  public void prefetch(String url, int width, int height) {
+    prefetch(url, width, height, true);
+  }
+
+  private void prefetch(String url, int width, int height, boolean decode) {
+    if (null == url) {
+      return;
+    }
+    String key = decode ? memoryKey(url, width, height) : url;
+    if (decode && null != mMemoryCache.get(key)) {
+      return;
+    }
+    synchronized (mPrefetching) {
+      if (!mPrefetching.add(key)) {
+        return;
+      }
+    }
+    sPrefetchExecutor.execute(new Prefetch(url, key, width, height, decode));
+  }
+
+  /**
+   * Drops the prefetches made with {@link #prefetch(String)} that have not started yet, for example
+   * because the rows they were made for have scrolled out of view. Prefetches that also decode are
+   * kept, since they are for the item about to be shown.
+   */
+  public void cancelPrefetches() {
+    for (Iterator<Runnable> it = sPrefetchExecutor.getQueue().iterator(); it.hasNext(); ) {
+      Runnable queued = it.next();
+      if (queued instanceof Prefetch && !((Prefetch) queued).mDecode) {
+        it.remove();
+        ((Prefetch) queued).drop();
+      }
+    }
+  }
+
+  /*
+   * Accounts a prefetch download against the budget; returns false once the budget for the current
+   * window is spent.
+   */
+  private boolean hasPrefetchBudget(long bytes) {
+    synchronized (mPrefetching) {
+      long now = SystemClock.elapsedRealtime();
+      if (now - mPrefetchWindowStart > PREFETCH_BUDGET_WINDOW_MS) {
+        mPrefetchWindowStart = now;
+        mPrefetchBytes = 0;
+      }
+      mPrefetchBytes += bytes;
+      return mPrefetchBytes <= PREFETCH_BUDGET_BYTES;
+    }
+  }
+
+  private class Prefetch implements Runnable {
+    private final String mUrl;
+    private final String mKey;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mDecode;
+
+    Prefetch(String url, String key, int width, int height, boolean decode) {
+      mUrl = url;
+      mKey = key;
+      mWidth = width;
+      mHeight = height;
+      mDecode = decode;
+    }
+
+    void drop() {
+      synchronized (mPrefetching) {
+        mPrefetching.remove(mKey);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        boolean onDisk = getDiskFile(mUrl).exists();
+        if (!onDisk && !hasPrefetchBudget(0)) {
+          CastUtils.LOGD(TAG, "Prefetch budget spent, skipping " + mUrl);
+          return;
+        }
+        if (mDecode) {
+          release(getBitmap(mUrl, mWidth, mHeight));
+        } else if (!onDisk) {
+          getFile(mUrl);
+        }
+        if (!onDisk) {
+          hasPrefetchBudget(getDiskFile(mUrl).length());
+        }
+      } catch (IOException e) {
+        CastUtils.LOGD(TAG, "Failed to prefetch " + mUrl, e);
+      } finally {
+        drop();
+      }
+    }
+  }
+
+  private Bitmap fetch(String url, int width, int height, String key) {
+    try {
+      File file = getFile(url);
+      Bitmap bitmap = decode(file, width, height);
+      if (null == bitmap) {
+        CastUtils.LOGE(TAG, "getBitmap(): Failed to decode the image for url: " + url);
+        file.delete();
+        return null;
+      }
+      retain(bitmap);
+      putInMemory(key, bitmap);
+      return bitmap;
+    } catch (IOException e) {
+      CastUtils.LOGE(TAG, "getBitmap(): Failed to load the image for url: " + url, e);
+      return null;
+    }
+  }
+
+  private Bitmap getFallback(int resId) {
+    if (0 == resId) {
+      return null;
+    }
+    String key = "res:" + resId;
+    Bitmap bitmap = getRetained(key);
+    if (null == bitmap) {
+      bitmap = BitmapFactory.decodeResource(mResources, resId);
+      if (null != bitmap) {
+        retain(bitmap);
+        putInMemory(key, bitmap);
+      }
+    }
+    return bitmap;
+  }
+
+  /*
+   * The latest artwork request for one target. It is delivered only if it is still the current
+   * request for its target once the image is ready.
+   */
+  private class Request implements Runnable {
+    private final Object mTarget;
+    private final String mUrl;
+    private final String mKey;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFallbackResId;
+    private final FutureTask<Void> mFuture;
+    private Callback mCallback;
+
+    Request(Object target, String url, String key, int width, int height, int fallbackResId,
+        Callback callback) {
+      mTarget = target;
+      mUrl = url;
+      mKey = key;
+      mWidth = width;
+      mHeight = height;
+      mFallbackResId = fallbackResId;
+      mCallback = callback;
+      mFuture = new FutureTask<Void>(this, null);
+    }
+
+    void cancel() {
+      // a fetch already under way is left to finish so its result still warms the cache
+      mFuture.cancel(false);
+      sExecutor.remove(mFuture);
+    }
+
+    @Override
+    public void run() {
+      Bitmap bitmap = getBitmap(mUrl, mWidth, mHeight);
+      if (null == bitmap) {
+        bitmap = getFallback(mFallbackResId);
+      }
+      final Bitmap result = bitmap;
+      mHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          Callback callback;
+          synchronized (mRequests) {
+            if (mRequests.get(mTarget) != Request.this) {
+              release(result);
+              return;
+            }
+            mRequests.remove(mTarget);
+            callback = mCallback;
+          }
+          try {
+            callback.onArtworkLoaded(result);
+          } finally {
+            release(result);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Drops every decoded bitmap held in memory, along with the pool of reusable bitmaps. Bitmaps
+   * still retained by a consumer are left alone, and the disk cache is untouched.
+   */
+  public void evictMemory() {
+    mMemoryCache.evictAll();
+    mBitmapPool.clear();
+  }
+
+  /*
+   * Decodes the bounds first, then the pixels at the sample size and config that suit the target.
+   */
+  private Bitmap decode(File file, int width, int height) {
+    String path = file.getAbsolutePath();
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(path, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, width, height);
+    boolean opaque = "image/jpeg".equals(options.outMimeType);
+    boolean small = width > 0 && height > 0 && width <= SMALL_TARGET_PX && height <= SMALL_TARGET_PX;
+    options.inPreferredConfig = opaque && (small || mLowRam) ? Bitmap.Config.RGB_565 :
+        Bitmap.Config.ARGB_8888;
+    options.inJustDecodeBounds = false;
+    options.inMutable = true;
+    if (BitmapPool.canReuse(options.inSampleSize)) {
+      int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+      int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+      options.inBitmap = mBitmapPool.get(sampledWidth, sampledHeight, options.inPreferredConfig);
+    }
+    Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+    if (null == bitmap && null != options.inBitmap) {
+      // decodeFile() swallows the decoder's refusal to reuse the pooled bitmap and returns null,
+      // so hand the bitmap back to the pool and try again with a newly allocated one
+      mBitmapPool.put(options.inBitmap);
+      options.inBitmap = null;
+      bitmap = BitmapFactory.decodeFile(path, options);
+    }
+    return bitmap;
+  }
+
+  /*
+   * Returns the largest power of two that keeps both decoded dimensions at or above the target,
+   * so centerCrop and fitXY targets are never upscaled.
+   */
+  static int calculateSampleSize(int outWidth, int outHeight, int width, int height) {
+    int sampleSize = 1;
+    if (width <= 0 || height <= 0) {
+      return sampleSize;
+    }
+    while (outWidth / (sampleSize * 2) >= width && outHeight / (sampleSize * 2) >= height) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static String memoryKey(String url, int width, int height) {
+    if (width <= 0 || height <= 0) {
+      return url;
+    }
+    return url + "#" + width + "x" + height;
+  }
+
+  /*
+   * Returns the disk cache file holding the encoded image for url, downloading it first if needed.
+   */
+  private File getFile(String url) throws IOException {
+    File file = getDiskFile(url);
+    if (file.exists()) {
+      file.setLastModified(System.currentTimeMillis());
+      return file;
+    }
+    if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+      throw new IOException("Unable to create " + mDiskDir);
+    }
+    File tmp = File.createTempFile("download", ".tmp", mDiskDir);
+    try {
+      download(url, tmp);
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+    } finally {
+      tmp.delete();
+    }
+    onFileAdded(file.length());
+    return file;
+  }
+
+  private File getDiskFile(String url) {
+    return new File(mDiskDir, keyFor(url));
+  }
+
+  private static void download(String url, File target) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    connection.setReadTimeout(READ_TIMEOUT_MS);
+    InputStream in = null;
+    OutputStream out = null;
+    try {
+      int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + code + " for " + url);
+      }
+      in = connection.getInputStream();
+      out = new FileOutputStream(target);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+    } finally {
+      closeQuietly(in);
+      closeQuietly(out);
+      connection.disconnect();
+    }
+  }
+
+  /*
+   * Keeps the disk cache under its budget by deleting the least recently used files once it grows
+   * past the limit; files are touched on every hit so their modification time tracks usage.
+   */
+  private void onFileAdded(long length) {
+    synchronized (mDiskLock) {
+      if (mDiskSize < 0) {
+        mDiskSize = 0;
+        File[] files = mDiskDir.listFiles();
+        if (null != files) {
+          for (File f : files) {
+            mDiskSize += f.length();
+          }
+        }
+      } else {
+        mDiskSize += length;
+      }
+      if (mDiskSize <= MAX_DISK_CACHE_BYTES) {
+        return;
+      }
+      File[] files = mDiskDir.listFiles();
+      if (null == files) {
+        return;
+      }
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+          long l = lhs.lastModified();
+          long r = rhs.lastModified();
+          return l < r ? -1 : (l == r ? 0 : 1);
+        }
+      });
+      long target = MAX_DISK_CACHE_BYTES * 3 / 4;
+      for (File f : files) {
+        if (mDiskSize <= target) {
+          break;
+        }
+        if (f.getName().endsWith(".tmp")) {
+          continue;
+        }
+        long size = f.length();
+        if (f.delete()) {
+          mDiskSize -= size;
+        }
+      }
+      CastUtils.LOGD(TAG, "Trimmed artwork disk cache to " + mDiskSize + " bytes");
+    }
+  }
+
+  private static String keyFor(String url) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      byte[] hash = digest.digest(url.getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return Integer.toHexString(url.hashCode());
+    } catch (IOException e) {
+      return Integer.toHexString(url.hashCode());
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (null != closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
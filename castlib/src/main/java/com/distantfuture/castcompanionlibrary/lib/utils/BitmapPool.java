@@ -0,0 +1,132 @@
+package com.distantfuture.castcompanionlibrary.lib.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable bitmaps that are no longer shown anywhere, bucketed by allocation size, that
+ * {@link ArtworkCache} decodes into through <code>inBitmap</code> so that a new poster reuses the
+ * memory of the last one instead of allocating afresh.
+ * <p/>
+ * From KitKat on, any pooled bitmap at least as large as the one being decoded can be reused, so a
+ * request is served from the smallest bucket that fits, as long as it is less than twice the size
+ * needed. Before KitKat the decoder only reuses a bitmap of exactly the same dimensions and config.
+ */
+class BitmapPool {
+
+  private static final String TAG = CastUtils.makeLogTag(BitmapPool.class);
+  private static final boolean REUSE_ANY_SIZE =
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+  private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets =
+      new TreeMap<Integer, LinkedList<Bitmap>>();
+  private final int mMaxBytes;
+  private int mSize;
+
+  BitmapPool(int maxBytes) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a pooled bitmap that a <code>width</code> by <code>height</code> image in
+   * <code>config</code> can be decoded into, or <code>null</code>. The bitmap is removed from the
+   * pool.
+   */
+  synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+    int needed = width * height * bytesPerPixel(config);
+    if (REUSE_ANY_SIZE) {
+      Map.Entry<Integer, LinkedList<Bitmap>> entry = mBuckets.ceilingEntry(needed);
+      if (null == entry || entry.getKey() >= needed * 2) {
+        return null;
+      }
+      return take(entry.getKey(), entry.getValue().iterator());
+    }
+    LinkedList<Bitmap> bucket = mBuckets.get(needed);
+    if (null == bucket) {
+      return null;
+    }
+    for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+      Bitmap candidate = it.next();
+      if (candidate.getWidth() == width && candidate.getHeight() == height &&
+          candidate.getConfig() == config) {
+        return take(needed, it, candidate);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds a bitmap that nothing references any more. Immutable or recycled bitmaps are ignored, and
+   * the largest bitmaps are recycled when the pool is over budget.
+   */
+  synchronized void put(Bitmap bitmap) {
+    if (null == bitmap || !bitmap.isMutable() || bitmap.isRecycled()) {
+      return;
+    }
+    int size = sizeOf(bitmap);
+    if (size > mMaxBytes) {
+      bitmap.recycle();
+      return;
+    }
+    LinkedList<Bitmap> bucket = mBuckets.get(size);
+    if (null == bucket) {
+      bucket = new LinkedList<Bitmap>();
+      mBuckets.put(size, bucket);
+    }
+    bucket.addLast(bitmap);
+    mSize += size;
+    while (mSize > mMaxBytes) {
+      Map.Entry<Integer, LinkedList<Bitmap>> largest = mBuckets.lastEntry();
+      take(largest.getKey(), largest.getValue().iterator()).recycle();
+    }
+  }
+
+  synchronized void clear() {
+    for (LinkedList<Bitmap> bucket : mBuckets.values()) {
+      for (Bitmap bitmap : bucket) {
+        bitmap.recycle();
+      }
+    }
+    mBuckets.clear();
+    mSize = 0;
+    CastUtils.LOGD(TAG, "Bitmap pool cleared");
+  }
+
+  static int sizeOf(Bitmap bitmap) {
+    return REUSE_ANY_SIZE ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+  }
+
+  /**
+   * Whether a bitmap decoded with <code>sampleSize</code> can reuse a pooled one on this platform.
+   */
+  static boolean canReuse(int sampleSize) {
+    return REUSE_ANY_SIZE || sampleSize == 1;
+  }
+
+  private Bitmap take(int size, Iterator<Bitmap> it) {
+    return take(size, it, it.next());
+  }
+
+  private Bitmap take(int size, Iterator<Bitmap> it, Bitmap bitmap) {
+    it.remove();
+    if (mBuckets.get(size).isEmpty()) {
+      mBuckets.remove(size);
+    }
+    mSize -= size;
+    return bitmap;
+  }
+
+  private static int bytesPerPixel(Bitmap.Config config) {
+    if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+      return 2;
+    } else if (config == Bitmap.Config.ALPHA_8) {
+      return 1;
+    }
+    return 4;
+  }
+}
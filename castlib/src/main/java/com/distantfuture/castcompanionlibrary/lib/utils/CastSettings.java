@@ -0,0 +1,254 @@
+package com.distantfuture.castcompanionlibrary.lib.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.distantfuture.castcompanionlibrary.lib.cast.BaseCastManager;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory view of the default shared preferences, used by the library for its own settings
+ * (session, route, application id, volume increment, termination policy) and by the preference
+ * helpers of {@link CastUtils}.
+ * <p/>
+ * The preferences are read once, when the settings are first used; after that reads are served
+ * from memory. Writes update memory right away and are queued; all writes made within a quarter
+ * of a second are applied together in one editor, so that connection and route selection code
+ * never waits on preference storage. Changes made to the same preferences by other
+ * code, such as a preference screen, are picked up through a change listener.
+ */
+public class CastSettings {
+
+  private static final String TAG = CastUtils.makeLogTag(CastSettings.class);
+  private static final long WRITE_DELAY_MS = 250;
+  private static final Object REMOVED = new Object();
+  private static CastSettings sInstance;
+
+  private final SharedPreferences mPrefs;
+  private final Map<String, Object> mValues = new HashMap<String, Object>();
+  private final Map<String, Object> mPendingWrites = new LinkedHashMap<String, Object>();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private boolean mFlushScheduled;
+  private boolean mApplying;
+
+  /*
+   * Shared preferences only keep a weak reference to their listeners, hence this field.
+   */
+  private final OnSharedPreferenceChangeListener mChangeListener = new OnSharedPreferenceChangeListener() {
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+      Object known;
+      synchronized (CastSettings.this) {
+        if (mApplying || mPendingWrites.containsKey(key)) {
+          // either our own write coming back, or ours is newer and will be written shortly
+          return;
+        }
+        known = mValues.get(key);
+      }
+      Object value = read(sharedPreferences, key, known);
+      synchronized (CastSettings.this) {
+        if (mPendingWrites.containsKey(key)) {
+          return;
+        }
+        if (null == value) {
+          mValues.remove(key);
+        } else {
+          mValues.put(key, value);
+        }
+      }
+    }
+  };
+
+  private final Runnable mFlusher = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private CastSettings(Context context) {
+    mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    mValues.putAll(mPrefs.getAll());
+    mPrefs.registerOnSharedPreferenceChangeListener(mChangeListener);
+  }
+
+  public static synchronized CastSettings getInstance(Context context) {
+    if (null == sInstance) {
+      sInstance = new CastSettings(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  public synchronized String getString(String key, String defaultValue) {
+    Object value = mValues.get(key);
+    return value instanceof String ? (String) value : defaultValue;
+  }
+
+  public synchronized float getFloat(String key, float defaultValue) {
+    Object value = mValues.get(key);
+    return value instanceof Float ? (Float) value : defaultValue;
+  }
+
+  public synchronized boolean getBoolean(String key, boolean defaultValue) {
+    Object value = mValues.get(key);
+    return value instanceof Boolean ? (Boolean) value : defaultValue;
+  }
+
+  /**
+   * Stores <code>value</code> under <code>key</code>, or removes the key if <code>value</code> is
+   * <code>null</code>.
+   */
+  public void putString(String key, String value) {
+    write(key, value);
+  }
+
+  public void putFloat(String key, float value) {
+    write(key, value);
+  }
+
+  public void putBoolean(String key, boolean value) {
+    write(key, value);
+  }
+
+  public void remove(String key) {
+    write(key, null);
+  }
+
+  /**
+   * Applies the queued writes now, for example before the process is expected to go away.
+   */
+  public void flush() {
+    Map<String, Object> writes;
+    synchronized (this) {
+      mHandler.removeCallbacks(mFlusher);
+      mFlushScheduled = false;
+      if (mPendingWrites.isEmpty()) {
+        return;
+      }
+      writes = new LinkedHashMap<String, Object>(mPendingWrites);
+      mPendingWrites.clear();
+    }
+    SharedPreferences.Editor editor = mPrefs.edit();
+    for (Map.Entry<String, Object> entry : writes.entrySet()) {
+      Object value = entry.getValue();
+      if (value == REMOVED) {
+        editor.remove(entry.getKey());
+      } else if (value instanceof String) {
+        editor.putString(entry.getKey(), (String) value);
+      } else if (value instanceof Float) {
+        editor.putFloat(entry.getKey(), (Float) value);
+      } else if (value instanceof Boolean) {
+        editor.putBoolean(entry.getKey(), (Boolean) value);
+      }
+    }
+    // on the main thread, apply() tells the change listeners before it returns
+    synchronized (this) {
+      mApplying = Looper.myLooper() == Looper.getMainLooper();
+    }
+    try {
+      editor.apply();
+    } finally {
+      synchronized (this) {
+        mApplying = false;
+      }
+    }
+    CastUtils.LOGD(TAG, "Applied " + writes.size() + " preference change(s)");
+  }
+
+  /*
+   * Reads the one preference that changed with the getter for the type it had so far; only a key
+   * that is new or has changed its type needs a look at all of them.
+   */
+  private static Object read(SharedPreferences prefs, String key, Object known) {
+    if (!prefs.contains(key)) {
+      return null;
+    }
+    try {
+      if (known instanceof Float) {
+        return prefs.getFloat(key, 0);
+      } else if (known instanceof Boolean) {
+        return prefs.getBoolean(key, false);
+      } else if (known instanceof Integer) {
+        return prefs.getInt(key, 0);
+      } else if (known instanceof Long) {
+        return prefs.getLong(key, 0);
+      } else if (null == known || known instanceof String) {
+        return prefs.getString(key, null);
+      }
+    } catch (ClassCastException e) {
+      // the key holds another type now
+    }
+    return prefs.getAll().get(key);
+  }
+
+  private synchronized void write(String key, Object value) {
+    Object current = mValues.get(key);
+    if (null == value ? null == current : value.equals(current)) {
+      return;
+    }
+    if (null == value) {
+      mValues.remove(key);
+      mPendingWrites.put(key, REMOVED);
+    } else {
+      mValues.put(key, value);
+      mPendingWrites.put(key, value);
+    }
+    if (!mFlushScheduled) {
+      mFlushScheduled = true;
+      mHandler.postDelayed(mFlusher, WRITE_DELAY_MS);
+    }
+  }
+
+  /*************************************************************************/
+  /************** Library settings *****************************************/
+  /*************************************************************************/
+
+  public String getSessionId() {
+    return getString(BaseCastManager.PREFS_KEY_SESSION_ID, null);
+  }
+
+  public void setSessionId(String sessionId) {
+    putString(BaseCastManager.PREFS_KEY_SESSION_ID, sessionId);
+  }
+
+  public String getRouteId() {
+    return getString(BaseCastManager.PREFS_KEY_ROUTE_ID, null);
+  }
+
+  public void setRouteId(String routeId) {
+    putString(BaseCastManager.PREFS_KEY_ROUTE_ID, routeId);
+  }
+
+  public String getApplicationId() {
+    return getString(BaseCastManager.PREFS_KEY_APPLICATION_ID, null);
+  }
+
+  public void setApplicationId(String applicationId) {
+    putString(BaseCastManager.PREFS_KEY_APPLICATION_ID, applicationId);
+  }
+
+  /**
+   * Returns the volume increment, or <code>Float.MIN_VALUE</code> if none was set.
+   */
+  public float getVolumeIncrement() {
+    return getFloat(BaseCastManager.PREFS_KEY_VOLUME_INCREMENT, Float.MIN_VALUE);
+  }
+
+  public void setVolumeIncrement(float increment) {
+    putFloat(BaseCastManager.PREFS_KEY_VOLUME_INCREMENT, increment);
+  }
+
+  /**
+   * Returns the termination policy chosen by the user, or <code>null</code> if there is none.
+   */
+  public String getTerminationPolicy() {
+    return getString(BaseCastManager.PREFS_KEY_TERMINATION_POLICY, null);
+  }
+}
@@ -6,11 +6,9 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.distantfuture.castcompanionlibrary.lib.BuildConfig;
@@ -106,13 +104,7 @@ public class CastUtils {
    * is <code>null</code>, then the provided key will be removed from the preferences.
    */
   public static void saveStringToPreference(Context context, String key, String value) {
-    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
-    if (null == value) {
-      // we want to remove
-      pref.edit().remove(key).apply();
-    } else {
-      pref.edit().putString(key, value).apply();
-    }
+    CastSettings.getInstance(context).putString(key, value);
   }
 
   /**
@@ -120,14 +112,12 @@ public class CastUtils {
    * is <code>Float.MIN_VALUE</code>, then the provided key will be removed from the preferences.
    */
   public static void saveFloatToPreference(Context context, String key, float value) {
-    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
     if (Float.MIN_VALUE == value) {
       // we want to remove
-      pref.edit().remove(key).apply();
+      CastSettings.getInstance(context).remove(key);
     } else {
-      pref.edit().putFloat(key, value).apply();
+      CastSettings.getInstance(context).putFloat(key, value);
     }
-
   }
 
   /**
@@ -135,8 +125,7 @@ public class CastUtils {
    * <code>null</code>.
    */
   public static String getStringFromPreference(Context context, String key) {
-    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
-    return pref.getString(key, null);
+    return CastSettings.getInstance(context).getString(key, null);
   }
 
   /**
@@ -144,8 +133,7 @@ public class CastUtils {
    * <code>Float.MIN_VALUE</code>.
    */
   public static float getFloatFromPreference(Context context, String key) {
-    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
-    return pref.getFloat(key, Float.MIN_VALUE);
+    return CastSettings.getInstance(context).getFloat(key, Float.MIN_VALUE);
   }
 
   /**
@@ -153,8 +141,7 @@ public class CastUtils {
    * value provided as <code>defaultValue</code>
    */
   public static boolean getBooleanFromPreference(Context context, String key, boolean defaultValue) {
-    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(context);
-    return pref.getBoolean(key, defaultValue);
+    return CastSettings.getInstance(context).getBoolean(key, defaultValue);
   }
 
   /**
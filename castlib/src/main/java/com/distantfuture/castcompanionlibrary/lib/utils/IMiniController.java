@@ -1,6 +1,7 @@
 
 package com.distantfuture.castcompanionlibrary.lib.utils;
 
+import android.graphics.Point;
 import android.net.Uri;
 
 import com.distantfuture.castcompanionlibrary.lib.utils.MiniController.OnMiniControllerChangedListener;
@@ -19,6 +20,12 @@ public interface IMiniController {
    */
   public void setIcon(Uri uri);
 
+  /**
+   * Returns the size, in pixels, that the album art is shown at, so it can be decoded no larger
+   * than needed
+   */
+  public Point getIconSize();
+
   /**
    * Sets the title
    */
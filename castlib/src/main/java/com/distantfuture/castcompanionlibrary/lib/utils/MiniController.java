@@ -3,7 +3,7 @@ package com.distantfuture.castcompanionlibrary.lib.utils;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Point;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
@@ -23,8 +23,6 @@ import com.distantfuture.castcompanionlibrary.lib.cast.exceptions.TransientNetwo
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaStatus;
 
-import java.net.URL;
-
 /**
  * A compound component that provides a superset of functionalities required for the global access
  * requirement. This component provides an image for the album art, a play/pause button, a seekbar
@@ -51,6 +49,8 @@ public class MiniController extends RelativeLayout implements IMiniController {
   protected ProgressBar mLoading;
   private OnMiniControllerChangedListener mListener;
   private Uri mIconUri;
+  private Bitmap mIconBitmap;
+  private boolean mIconDropped;
   private Drawable mPauseDrawable;
   private Drawable mPlayDrawable;
   private View mContainer;
@@ -136,7 +136,22 @@ public class MiniController extends RelativeLayout implements IMiniController {
   }
 
   private void setIcon(Bitmap bm) {
+    ArtworkCache artworkCache = ArtworkCache.getInstance(getContext());
+    artworkCache.retain(bm);
     mIcon.setImageBitmap(bm);
+    artworkCache.release(mIconBitmap);
+    mIconBitmap = bm;
+  }
+
+  @Override
+  public Point getIconSize() {
+    int width = mIcon.getWidth();
+    int height = mIcon.getHeight();
+    if (width <= 0 || height <= 0) {
+      width = getResources().getDimensionPixelSize(R.dimen.mini_controller_icon_width);
+      height = getResources().getDimensionPixelSize(R.dimen.mini_controller_icon_height);
+    }
+    return new Point(width, height);
   }
 
   @Override
@@ -146,29 +161,48 @@ public class MiniController extends RelativeLayout implements IMiniController {
     }
 
     mIconUri = uri;
-    new Thread(new Runnable() {
-      Bitmap bm = null;
+    loadIcon(uri);
+  }
+
+  private void loadIcon(Uri uri) {
+    if (null == getWindowToken()) {
+      // not attached; the icon is loaded once it is
+      mIconDropped = true;
+      return;
+    }
+    Point size = getIconSize();
+    ArtworkCache.getInstance(getContext()).load(this, null == uri ? null : uri.toString(), size.x,
+        size.y, R.drawable.dummy_album_art, new ArtworkCache.Callback() {
 
       @Override
-      public void run() {
-        try {
-          URL imgUrl = new URL(mIconUri.toString());
-          bm = BitmapFactory.decodeStream(imgUrl.openStream());
-        } catch (Exception e) {
-          CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-              mIconUri + ", using the default one", e);
-          bm = BitmapFactory.decodeResource(getResources(), R.drawable.dummy_album_art);
-        }
-        mIcon.post(new Runnable() {
+      public void onArtworkLoaded(Bitmap bitmap) {
+        setIcon(bitmap);
+      }
+    });
+  }
 
-          @Override
-          public void run() {
-            setIcon(bm);
-          }
-        });
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    if (mIconDropped) {
+      mIconDropped = false;
+      loadIcon(mIconUri);
+    }
+  }
 
-      }
-    }).start();
+  /*
+   * The icon is let go while the view is detached, so that a controller that is never attached again
+   * does not keep its bitmap out of the artwork cache's pool; it is loaded again on attach.
+   */
+  @Override
+  protected void onDetachedFromWindow() {
+    ArtworkCache artworkCache = ArtworkCache.getInstance(getContext());
+    artworkCache.cancel(this);
+    mIcon.setImageBitmap(null);
+    artworkCache.release(mIconBitmap);
+    mIconBitmap = null;
+    mIconDropped = true;
+    super.onDetachedFromWindow();
   }
 
   @Override
@@ -0,0 +1,204 @@
+package com.distantfuture.castcompanionlibrary.lib.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Runs delayed and periodic UI tasks on the main thread, all multiplexed onto a single
+ * {@link Choreographer} frame callback that is armed for whichever task is due first. This replaces
+ * one <code>java.util.Timer</code> thread per timer, and the hop back to the main thread that each
+ * of those needed, so screens can start and stop their timers as often as they like.
+ * <p/>
+ * Every scheduled task is represented by a {@link Token}; cancelling the token guarantees that the
+ * task will not run again. Tasks can be scheduled and cancelled from any thread, but they always
+ * run on the main thread, in due order. An exception thrown by a task is not caught, and the task
+ * is cancelled.
+ */
+public class UiTaskScheduler {
+
+  private static final String TAG = CastUtils.makeLogTag(UiTaskScheduler.class);
+  private static UiTaskScheduler sInstance;
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final PriorityQueue<Token> mQueue = new PriorityQueue<Token>();
+  private Choreographer mChoreographer;
+  private long mSequence;
+  private long mArmedFor = Long.MAX_VALUE;
+
+  /**
+   * A handle on a scheduled task.
+   */
+  public final class Token implements Comparable<Token> {
+    private final Runnable mTask;
+    private final long mPeriod;
+    private final long mSequence;
+    private long mDueAt;
+    private volatile boolean mCancelled;
+
+    private Token(Runnable task, long dueAt, long period, long sequence) {
+      mTask = task;
+      mDueAt = dueAt;
+      mPeriod = period;
+      mSequence = sequence;
+    }
+
+    /**
+     * Cancels the task. It will not run again, even if it was already due.
+     */
+    public void cancel() {
+      mCancelled = true;
+      remove(this);
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+
+    @Override
+    public int compareTo(Token another) {
+      if (mDueAt != another.mDueAt) {
+        return mDueAt < another.mDueAt ? -1 : 1;
+      }
+      return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+    }
+  }
+
+  private UiTaskScheduler() {
+  }
+
+  public static synchronized UiTaskScheduler getInstance() {
+    if (null == sInstance) {
+      sInstance = new UiTaskScheduler();
+    }
+    return sInstance;
+  }
+
+  /**
+   * Runs <code>task</code> once, <code>delayMillis</code> from now.
+   */
+  public Token schedule(Runnable task, long delayMillis) {
+    return enqueue(task, delayMillis, 0);
+  }
+
+  /**
+   * Runs <code>task</code> every <code>periodMillis</code>, starting <code>initialDelayMillis</code>
+   * from now. Runs that were missed, for example while the main thread was busy, are skipped
+   * rather than run back to back.
+   */
+  public Token scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis) {
+    if (periodMillis <= 0) {
+      throw new IllegalArgumentException("periodMillis must be positive");
+    }
+    return enqueue(task, initialDelayMillis, periodMillis);
+  }
+
+  private Token enqueue(Runnable task, long delayMillis, long periodMillis) {
+    Token token;
+    synchronized (this) {
+      long dueAt = SystemClock.uptimeMillis() + Math.max(0, delayMillis);
+      token = new Token(task, dueAt, periodMillis, mSequence++);
+      mQueue.add(token);
+    }
+    arm();
+    return token;
+  }
+
+  /*
+   * A cancelled token may still be the one the frame callback is armed for; that wake up then
+   * finds nothing due and re-arms for the next task.
+   */
+  private synchronized void remove(Token token) {
+    mQueue.remove(token);
+  }
+
+  private final Runnable mArmer = new Runnable() {
+    @Override
+    public void run() {
+      arm();
+    }
+  };
+
+  private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      runDueTasks();
+    }
+  };
+
+  /*
+   * Makes sure the frame callback fires no later than the earliest due task. Only the main thread
+   * touches the Choreographer.
+   */
+  private void arm() {
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      mHandler.post(mArmer);
+      return;
+    }
+    long dueAt;
+    synchronized (this) {
+      Token head = mQueue.peek();
+      if (null == head || head.mDueAt >= mArmedFor) {
+        return;
+      }
+      dueAt = head.mDueAt;
+      mArmedFor = dueAt;
+    }
+    if (null == mChoreographer) {
+      mChoreographer = Choreographer.getInstance();
+    }
+    mChoreographer.removeFrameCallback(mFrameCallback);
+    mChoreographer.postFrameCallbackDelayed(mFrameCallback,
+        Math.max(0, dueAt - SystemClock.uptimeMillis()));
+  }
+
+  private void runDueTasks() {
+    long now = SystemClock.uptimeMillis();
+    List<Token> due = new ArrayList<Token>();
+    synchronized (this) {
+      mArmedFor = Long.MAX_VALUE;
+      while (!mQueue.isEmpty() && mQueue.peek().mDueAt <= now) {
+        due.add(mQueue.poll());
+      }
+    }
+    for (int i = 0; i < due.size(); i++) {
+      Token token = due.get(i);
+      if (token.mCancelled) {
+        continue;
+      }
+      boolean ran = false;
+      try {
+        token.mTask.run();
+        ran = true;
+      } finally {
+        if (!ran) {
+          // the exception is left to crash the app, as it did with Timer and Handler; should it be
+          // caught further up, the failed task never runs again and the others stay scheduled
+          CastUtils.LOGE(TAG, "Scheduled task " + token.mTask + " failed");
+          token.mCancelled = true;
+          synchronized (this) {
+            mQueue.addAll(due.subList(i + 1, due.size()));
+          }
+          arm();
+        }
+      }
+      if (token.mPeriod > 0) {
+        synchronized (this) {
+          if (!token.mCancelled) {
+            token.mDueAt += token.mPeriod;
+            if (token.mDueAt <= now) {
+              token.mDueAt = now + token.mPeriod;
+            }
+            mQueue.add(token);
+          }
+        }
+      }
+    }
+    arm();
+  }
+}
@@ -9,7 +9,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -28,10 +27,6 @@ import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
 import com.google.android.gms.cast.MediaStatus;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-
 /**
  * A service to provide status bar Notifications when we are casting. For JB+ versions, notification
  * area provides a play/pause toggle and an "x" button to disconnect but that for GB, we do not show
@@ -138,39 +133,36 @@ public class VideoCastNotificationService extends Service {
           startForeground(NOTIFICATION_ID, mNotification);
         }
       } else {
-        new Thread(new Runnable() {
-
-          @Override
-          public void run() {
-            URL imgUrl = null;
-            try {
-              MediaMetadata mm = info.getMetadata();
-              mVideoArtUri = mm.getImages().get(0).getUrl();
-              imgUrl = new URL(mVideoArtUri.toString());
-              mVideoArtBitmap = BitmapFactory.decodeStream(imgUrl.openStream());
-              build(info, mVideoArtBitmap, mIsPlaying);
-              if (visible) {
-                startForeground(NOTIFICATION_ID, mNotification);
+        final Uri imgUri = uri;
+        int size = getResources().getDimensionPixelSize(R.dimen.artwork_thumbnail_size);
+        ArtworkCache.getInstance(this).load(this, imgUri.toString(), size, size, 0,
+            new ArtworkCache.Callback() {
+
+              @Override
+              public void onArtworkLoaded(Bitmap bitmap) {
+                try {
+                  ArtworkCache artworkCache =
+                      ArtworkCache.getInstance(VideoCastNotificationService.this);
+                  artworkCache.retain(bitmap);
+                  artworkCache.release(mVideoArtBitmap);
+                  mVideoArtUri = imgUri;
+                  mVideoArtBitmap = bitmap;
+                  build(info, mVideoArtBitmap, mIsPlaying);
+                  if (visible) {
+                    startForeground(NOTIFICATION_ID, mNotification);
+                  }
+                } catch (CastException e) {
+                  CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
+                      imgUri + ", using the default one", e);
+                } catch (TransientNetworkDisconnectionException e) {
+                  CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
+                      imgUri + " due to network issues, using the default one", e);
+                } catch (NoConnectionException e) {
+                  CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
+                      imgUri + " due to network issues, using the default one", e);
+                }
               }
-            } catch (MalformedURLException e) {
-              CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-                  imgUrl + ", using the default one", e);
-            } catch (IOException e) {
-              CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-                  imgUrl + ", using the default one", e);
-            } catch (CastException e) {
-              CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-                  imgUrl + ", using the default one", e);
-            } catch (TransientNetworkDisconnectionException e) {
-              CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-                  imgUrl + " due to network issues, using the default one", e);
-            } catch (NoConnectionException e) {
-              CastUtils.LOGE(TAG, "setIcon(): Failed to load the image with url: " +
-                  imgUrl + " due to network issues, using the default one", e);
-            }
-
-          }
-        }).start();
+            });
       }
     } catch (CastException e) {
       // already logged
@@ -231,7 +223,11 @@ public class VideoCastNotificationService extends Service {
   @Override
   public void onDestroy() {
     CastUtils.LOGD(TAG, "onDestroy was called");
+    ArtworkCache artworkCache = ArtworkCache.getInstance(this);
+    artworkCache.cancel(this);
     removeNotification();
+    artworkCache.release(mVideoArtBitmap);
+    mVideoArtBitmap = null;
     if (null != mBroadcastReceiver) {
       unregisterReceiver(mBroadcastReceiver);
     }
@@ -338,6 +334,6 @@ public class VideoCastNotificationService extends Service {
    * Reads application ID and target activity from preference storage.
    */
   private void readPersistedData() {
-    mApplicationId = CastUtils.getStringFromPreference(this, VideoCastManager.PREFS_KEY_APPLICATION_ID);
+    mApplicationId = CastSettings.getInstance(this).getApplicationId();
   }
 }